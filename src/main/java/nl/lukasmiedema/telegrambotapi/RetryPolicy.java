@@ -0,0 +1,89 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import javax.ws.rs.ProcessingException;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether and when a failed request to the Telegram API is retried.
+ * <ul>
+ *     <li>When flood control kicks in (429) and the server sends <code>retry_after</code>,
+ *     exactly that long is waited.</li>
+ *     <li>Server errors (5xx), 429s without <code>retry_after</code> and network errors are retried with
+ *     exponential backoff and full jitter.</li>
+ *     <li>Other errors, such as 400 Bad Request or 403 Forbidden, will fail again and are never retried.</li>
+ * </ul>
+ * @author Lukas Miedema
+ */
+public class RetryPolicy {
+
+    /**
+     * Never retries
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    /**
+     * Tries up to 5 times, with backoff starting at half a second and capped at 30 seconds.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, 500, 30_000);
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * Constructs a new RetryPolicy
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * @param baseDelay the backoff of the first retry in milliseconds. Each next retry doubles it.
+     * @param maxDelay the maximum backoff in milliseconds. Does not limit <code>retry_after</code>.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt.
+     * @param attempt the attempt that just failed, starting at 1
+     * @param error the cause of the failure
+     * @return the delay in milliseconds, or -1 to give up
+     */
+    public long getDelay(int attempt, Throwable error) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+
+        // Errors reported by Telegram
+        if (error instanceof TelegramApiException) {
+            TelegramApiException e = (TelegramApiException) error;
+            if (e.getRetryAfter() > 0) {
+                return TimeUnit.SECONDS.toMillis(e.getRetryAfter());
+            }
+            if (e.getResponse().getStatus() == 429 || e.getResponse().getStatus() >= 500) {
+                return backoff(attempt);
+            }
+            return -1;
+        }
+
+        // Network errors, but not responses we could not parse
+        if (error instanceof ProcessingException && error.getCause() instanceof IOException &&
+                !(error.getCause() instanceof JsonProcessingException)) {
+            return backoff(attempt);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a random delay between 0 and the exponential backoff of the attempt.
+     * @param attempt the attempt that just failed, starting at 1
+     * @return
+     */
+    protected long backoff(int attempt) {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+}
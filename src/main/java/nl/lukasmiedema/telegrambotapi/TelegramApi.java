@@ -1,14 +1,28 @@
 package nl.lukasmiedema.telegrambotapi;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import nl.lukasmiedema.telegrambotapi.ratelimit.SendScheduler;
+import nl.lukasmiedema.telegrambotapi.ratelimit.TextCoalescer;
 import nl.lukasmiedema.telegrambotapi.telegram.TelegramUser;
+import nl.lukasmiedema.telegrambotapi.telegram.media.TelegramDocument;
+import nl.lukasmiedema.telegrambotapi.telegram.media.TelegramPicture;
+import nl.lukasmiedema.telegrambotapi.telegram.media.TelegramPictureSet;
+import nl.lukasmiedema.telegrambotapi.telegram.media.TelegramStoredFile;
+import nl.lukasmiedema.telegrambotapi.telegram.media.TelegramVideo;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMediaMessage;
 import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMessage;
 import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramParseMode;
 import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramTextMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.request.JsonRequest;
 import nl.lukasmiedema.telegrambotapi.telegram.response.*;
+import nl.lukasmiedema.telegrambotapi.upload.FileIdCache;
+import nl.lukasmiedema.telegrambotapi.upload.StreamingUpload;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
+import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
@@ -16,10 +30,29 @@ import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Via a TelegramApi instance Telegram API methods can be invoked.
+ * Most methods come in two flavours: a blocking one, and one suffixed with <code>Async</code> which returns
+ * immediately with a {@link CompletableFuture} that completes once the response has been received.
  * @author Lukas Miedema
  */
 public abstract class TelegramApi {
@@ -27,24 +60,66 @@ public abstract class TelegramApi {
     // The API url
     public static final String API_URL = "https://api.telegram.org/bot";
 
+    // The file download url
+    public static final String FILE_URL = "https://api.telegram.org/file/bot";
+
+    // Generic type for reading error responses
+    private static final GenericType<TelegramResponse<Object>> ERROR_TYPE =
+            new GenericType<TelegramResponse<Object>>(){};
+
+    // The JSON provider, which is thread safe and shared by all clients
+    private static final JacksonJaxbJsonProvider JSON_PROVIDER = new JacksonJaxbJsonProvider();
+    static {
+        JSON_PROVIDER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    // Waits out the delays between asynchronous retries
+    private static final ScheduledExecutorService RETRY_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "telegram-bot-api retry timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final WebTarget api;
+    private final WebTarget files;
+    private final boolean localServer;
+    private final SendScheduler sendScheduler;
+    private final RetryPolicy retryPolicy;
+    private final TextCoalescer textCoalescer;
+    private final FileIdCache fileIdCache;
 
     /**
      * Construct a new TelegramApi with the provided bot token
      * @param token    the bot token
      */
     public TelegramApi(String token) {
+        this(token, new TelegramApiConfig());
+    }
 
-        // Create JSON provider
-        JacksonJaxbJsonProvider provider = new JacksonJaxbJsonProvider();
-        provider.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    /**
+     * Construct a new TelegramApi with the provided bot token and settings
+     * @param token    the bot token
+     * @param config   the settings
+     */
+    public TelegramApi(String token, TelegramApiConfig config) {
+        this.sendScheduler = config.getSendScheduler();
+        this.retryPolicy = config.getRetryPolicy();
+        this.textCoalescer = config.getTextCoalescer();
+        this.fileIdCache = config.getFileIdCache();
+        this.localServer = config.isLocalServer();
 
-        // Create a rest client with JSON support
-        Client client = ClientBuilder.newBuilder().register(MultiPartFeature.class).register(provider).build();
+        // Create a rest client with JSON support. Clients shared between bots only need this once.
+        Client client = config.getTransport().createClient();
+        synchronized (client) {
+            if (!client.getConfiguration().isRegistered(JSON_PROVIDER)) {
+                client.register(MultiPartFeature.class).register(JSON_PROVIDER);
+            }
+        }
         //client.register(new LoggingFilter(Logger.getAnonymousLogger(), true));
 
-        // Create target
-        this.api = client.target(API_URL + token);
+        // Create targets
+        this.api = client.target(config.getApiUrl() + token);
+        this.files = client.target(config.getFileUrl() + token);
     }
 
     /**
@@ -56,6 +131,91 @@ public abstract class TelegramApi {
         return requestResource("getMe", null, TelegramUser.GENERIC_TYPE);
     }
 
+    /**
+     * Asynchronous version of {@link #getMe()}.
+     * @return a future completing with the bot's TelegramUser
+     */
+    public CompletableFuture<TelegramResponse<TelegramUser>> getMeAsync() {
+        return requestResourceAsync("getMe", null, TelegramUser.GENERIC_TYPE);
+    }
+
+    /**
+     * Prepares a file for downloading. Use {@link #openFile(TelegramStoredFile)} or
+     * {@link #downloadFile(TelegramStoredFile, Path)} to get its contents.
+     * @param fileId the file id of the file
+     * @return
+     */
+    public TelegramResponse<TelegramStoredFile> getFile(String fileId) {
+        return await(getFileAsync(fileId));
+    }
+
+    /**
+     * Asynchronous version of {@link #getFile(String)}.
+     * @param fileId the file id of the file
+     * @return a future completing with the file
+     */
+    public CompletableFuture<TelegramResponse<TelegramStoredFile>> getFileAsync(String fileId) {
+        JsonRequest message = JsonRequest.of(gen -> gen.writeStringField("file_id", fileId));
+        return requestResourceAsync("getFile", message, TelegramStoredFile.GENERIC_TYPE);
+    }
+
+    /**
+     * Opens a stream reading the contents of a file. When the Bot API is a local server, the file is read
+     * straight from disk. The caller should close the stream.
+     * @param file the file, as returned by {@link #getFile(String)}
+     * @return
+     * @throws IOException if the file could not be opened
+     */
+    public InputStream openFile(TelegramStoredFile file) throws IOException {
+        Path local = getLocalPath(file);
+        if (local != null) {
+            return Files.newInputStream(local);
+        }
+        Response response = files.path(file.getFilePath()).request().get();
+        if (response.getStatus() != 200) {
+            response.close();
+            throw new IOException("Downloading " + file.getFileId() + " failed with status " + response.getStatus());
+        }
+        return response.readEntity(InputStream.class);
+    }
+
+    /**
+     * Stores the contents of a file at the provided path, replacing it if it exists. When the Bot API is a local
+     * server, the file is copied on disk without passing through this process.
+     * @param file the file, as returned by {@link #getFile(String)}
+     * @param target where to store the file
+     * @throws IOException if the file could not be downloaded or stored
+     */
+    public void downloadFile(TelegramStoredFile file, Path target) throws IOException {
+        Path local = getLocalPath(file);
+        if (local != null) {
+            Files.copy(local, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            try (InputStream in = openFile(file)) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Returns where the file is stored on this machine, or null if it has to be downloaded.
+     * Only a local Bot API server returns absolute paths.
+     * @param file the file, as returned by {@link #getFile(String)}
+     * @return
+     */
+    public Path getLocalPath(TelegramStoredFile file) {
+        if (file.getFilePath() == null) {
+            throw new IllegalArgumentException("File " + file.getFileId() + " can't be downloaded");
+        }
+        if (localServer) {
+            Path path = Paths.get(file.getFilePath());
+            if (path.isAbsolute()) {
+                return path;
+            }
+        }
+        return null;
+    }
+
 
     /**
      * Sends a text message
@@ -72,19 +232,126 @@ public abstract class TelegramApi {
     sendText(long chatId, String text, TelegramParseMode mode, boolean disableWebPagePreview, boolean isReplyTo,
              long replyToMessage) {
 
-        // Create the message
-        ObjectNode message = new ObjectNode(JsonNodeFactory.instance);
-        message.put("chat_id", chatId);
-        message.put("text", text);
-        if (mode.toString() != null) {
-            message.put("parse_mode", mode.toString());
+        // Coalesced texts have to wait for their window to close
+        if (textCoalescer != null && !isReplyTo) {
+            return await(sendTextAsync(chatId, text, mode, disableWebPagePreview, false, 0));
         }
-        message.put("disable_web_page_preview", disableWebPagePreview);
-        if (isReplyTo) {
-            message.put("reply_to_message_id", replyToMessage);
+
+        JsonRequest message = createTextMessage(chatId, text, mode, disableWebPagePreview, isReplyTo, replyToMessage);
+        return (TelegramResponse<TelegramTextMessage>)
+                requestChatResource(chatId, "sendMessage", message, TelegramMessage.GENERIC_TYPE);
+    }
+
+    /**
+     * Asynchronous version of {@link #sendText(long, String, TelegramParseMode, boolean, boolean, long)}.
+     * @param chatId the chat to send it to
+     * @param text the text
+     * @param mode the parse mode
+     * @param disableWebPagePreview true to load a web page preview for the first url in the text
+     * @param isReplyTo is this a reply to a message? If so, provide a replyToMessage
+     * @param replyToMessage the id of the message to quote. If isReplyTo is false, this is ignored.
+     * @return a future completing with the sent message
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>>
+    sendTextAsync(long chatId, String text, TelegramParseMode mode, boolean disableWebPagePreview, boolean isReplyTo,
+                  long replyToMessage) {
+
+        // Replies are never merged, they have to quote their own message
+        if (textCoalescer != null && !isReplyTo) {
+            return textCoalescer.submit(chatId, text, mode, disableWebPagePreview,
+                    merged -> sendTextNow(chatId, merged, mode, disableWebPagePreview, false, 0));
         }
+        return sendTextNow(chatId, text, mode, disableWebPagePreview, isReplyTo, replyToMessage);
+    }
 
-        return (TelegramResponse<TelegramTextMessage>) requestResource("sendMessage", message, TelegramMessage.GENERIC_TYPE);
+    /**
+     * Sends a text message in the response to the web hook call being handled, which saves a request to the
+     * Telegram servers. This is only possible for one message per update, from the thread the update is handled
+     * on, and only with web hooks without an {@link nl.lukasmiedema.telegrambotapi.dispatch.UpdateDispatcher}
+     * (which answers Telegram before the update is handled). Otherwise the message is sent as usual.
+     * Messages sent in the response are not paced by a {@link SendScheduler}.
+     * @param chatId the chat to send it to
+     * @param text the text of the message
+     * @return a future completing with the sent message, or with null when it went into the response;
+     *         Telegram does not report on those
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>> sendTextInResponse(long chatId, String text) {
+        return this.sendTextInResponse(chatId, text, TelegramParseMode.NORMAL, false, false, 0);
+    }
+
+    /**
+     * Sends a text message as a reply to someone else in the response to the web hook call being handled.
+     * See {@link #sendTextInResponse(long, String)}.
+     * @param chatId the chat to send it to
+     * @param text the text of the message
+     * @param replyToMessage the ID of the message to reply to
+     * @return a future completing with the sent message, or with null when it went into the response
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>> sendTextInResponse(long chatId, String text,
+                                                                                       long replyToMessage) {
+        return this.sendTextInResponse(chatId, text, TelegramParseMode.NORMAL, false, true, replyToMessage);
+    }
+
+    /**
+     * Sends a text message in the response to the web hook call being handled.
+     * See {@link #sendTextInResponse(long, String)}.
+     * @param chatId the chat to send it to
+     * @param text the text
+     * @param mode the parse mode
+     * @param disableWebPagePreview true to load a web page preview for the first url in the text
+     * @param isReplyTo is this a reply to a message? If so, provide a replyToMessage
+     * @param replyToMessage the id of the message to quote. If isReplyTo is false, this is ignored.
+     * @return a future completing with the sent message, or with null when it went into the response
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>>
+    sendTextInResponse(long chatId, String text, TelegramParseMode mode, boolean disableWebPagePreview,
+                       boolean isReplyTo, long replyToMessage) {
+        JsonRequest message = createTextMessage(chatId, text, mode, disableWebPagePreview, isReplyTo, replyToMessage);
+        if (replyInResponse("sendMessage", message)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return sendTextAsync(chatId, text, mode, disableWebPagePreview, isReplyTo, replyToMessage);
+    }
+
+    /**
+     * Puts a method call in the response to the web hook call this API is handling on this thread, if there is one
+     * and its response has no method call yet. Only web hook APIs can do this.
+     * @param method the method to call
+     * @param request the parameters of the method
+     * @return false if the call should be made as a request of its own instead
+     */
+    protected boolean replyInResponse(String method, JsonRequest request) {
+        return false;
+    }
+
+    /**
+     * Sends a text message without coalescing.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<TelegramResponse<TelegramTextMessage>>
+    sendTextNow(long chatId, String text, TelegramParseMode mode, boolean disableWebPagePreview, boolean isReplyTo,
+                long replyToMessage) {
+        JsonRequest message = createTextMessage(chatId, text, mode, disableWebPagePreview, isReplyTo, replyToMessage);
+        return (CompletableFuture<TelegramResponse<TelegramTextMessage>>) (CompletableFuture<?>)
+                requestChatResourceAsync(chatId, "sendMessage", message, TelegramMessage.GENERIC_TYPE);
+    }
+
+    /**
+     * Creates the sendMessage request body.
+     */
+    private JsonRequest createTextMessage(long chatId, String text, TelegramParseMode mode,
+                                          boolean disableWebPagePreview, boolean isReplyTo, long replyToMessage) {
+        return JsonRequest.of(message -> {
+            message.writeNumberField("chat_id", chatId);
+            message.writeStringField("text", text);
+            if (mode.toString() != null) {
+                message.writeStringField("parse_mode", mode.toString());
+            }
+            message.writeBooleanField("disable_web_page_preview", disableWebPagePreview);
+            if (isReplyTo) {
+                message.writeNumberField("reply_to_message_id", replyToMessage);
+            }
+        });
     }
 
     /**
@@ -95,15 +362,31 @@ public abstract class TelegramApi {
      * @return
      */
     public String setWebhook(String url, File cert) {
+        return setWebhook(url, cert, 0);
+    }
+
+    /**
+     * Sets the webhook, limiting the number of connections Telegram makes to it at the same time.
+     * @param url the url the telegram server should make requests to. Leave null to unregister
+     * @param cert the certificate to use. Leave null if you have a normal (not self-signed) certificate and you do
+     *             not wish to use it for certificate pinning.
+     * @param maxConnections the maximum number of connections (1-100), or 0 for the Telegram default of 40
+     * @return
+     */
+    public String setWebhook(String url, File cert, int maxConnections) {
 
         // Check if we should sent a certificate
         if (cert == null) {
 
             // Send the url if its set, otherwise send an empty object
-            ObjectNode message = new ObjectNode(JsonNodeFactory.instance);
-            if (url != null ) {
-                message.put("url", url);
-            }
+            JsonRequest message = JsonRequest.of(gen -> {
+                if (url != null) {
+                    gen.writeStringField("url", url);
+                }
+                if (maxConnections > 0) {
+                    gen.writeNumberField("max_connections", maxConnections);
+                }
+            });
             return api.path("setWebhook").request().post(Entity.json(message), String.class);
 
         } else {
@@ -111,7 +394,11 @@ public abstract class TelegramApi {
             // Here we have to do things a bit differently because of the file
             MultiPart entity = new MultiPart().bodyPart(new FileDataBodyPart("certificate", cert));
             entity.setMediaType(MediaType.MULTIPART_FORM_DATA_TYPE);
-            return api.path("setWebhook").queryParam("url", url).request().post(Entity.entity(entity, entity.getMediaType()), String.class);
+            WebTarget target = api.path("setWebhook").queryParam("url", url);
+            if (maxConnections > 0) {
+                target = target.queryParam("max_connections", maxConnections);
+            }
+            return target.request().post(Entity.entity(entity, entity.getMediaType()), String.class);
         }
 
     }
@@ -141,15 +428,462 @@ public abstract class TelegramApi {
         return this.sendText(chatId, text, TelegramParseMode.NORMAL, false, true, replyToMessage);
     }
 
+    /**
+     * Asynchronous version of {@link #sendText(long, String)}.
+     * @param chatId the chat to send it to
+     * @param text the text of the message
+     * @return a future completing with the sent message
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>> sendTextAsync(long chatId, String text) {
+        return this.sendTextAsync(chatId, text, TelegramParseMode.NORMAL, false, false, 0);
+    }
 
     /**
-     * Calls the requested url and returns the expected data
+     * Asynchronous version of {@link #sendText(long, String, long)}.
+     * @param chatId the chat to send it to
+     * @param text the text of the message
+     * @param replyToMessage the ID of the message to reply to
+     * @return a future completing with the sent message
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>> sendTextAsync(long chatId, String text,
+                                                                                  long replyToMessage) {
+        return this.sendTextAsync(chatId, text, TelegramParseMode.NORMAL, false, true, replyToMessage);
+    }
+
+
+    /**
+     * Sends a photo. When a {@link FileIdCache} has been configured and the same photo has been sent before,
+     * only its file id is sent instead of the whole file.
+     * @param chatId the chat to send it to
+     * @param photo the photo
+     * @param caption the caption, or null
+     * @return
+     */
+    public TelegramResponse<TelegramMediaMessage<TelegramPictureSet>> sendPhoto(long chatId, File photo,
+                                                                              String caption) {
+        return await(sendPhotoAsync(chatId, photo, caption));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendPhoto(long, File, String)}. Note that looking up a cached file id
+     * requires hashing the file, which is done on the calling thread.
+     * @param chatId the chat to send it to
+     * @param photo the photo
+     * @param caption the caption, or null
+     * @return a future completing with the sent message
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramPictureSet>>>
+    sendPhotoAsync(long chatId, File photo, String caption) {
+        return (CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramPictureSet>>>) (CompletableFuture<?>)
+                sendFileAsync(chatId, "sendPhoto", "photo", photo, caption, m -> {
+                    List<TelegramPicture> sizes = ((TelegramPictureSet) m.getMedia()).getPictures();
+                    return sizes.isEmpty() ? null : sizes.get(sizes.size() - 1).getFileId();
+                });
+    }
+
+    /**
+     * Sends a general file. When a {@link FileIdCache} has been configured and the same file has been sent before,
+     * only its file id is sent instead of the whole file.
+     * @param chatId the chat to send it to
+     * @param document the file
+     * @param caption the caption, or null
+     * @return
+     */
+    public TelegramResponse<TelegramMediaMessage<TelegramDocument>> sendDocument(long chatId, File document,
+                                                                               String caption) {
+        return await(sendDocumentAsync(chatId, document, caption));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendDocument(long, File, String)}. Note that looking up a cached file id
+     * requires hashing the file, which is done on the calling thread.
+     * @param chatId the chat to send it to
+     * @param document the file
+     * @param caption the caption, or null
+     * @return a future completing with the sent message
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramDocument>>>
+    sendDocumentAsync(long chatId, File document, String caption) {
+        return (CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramDocument>>>) (CompletableFuture<?>)
+                sendFileAsync(chatId, "sendDocument", "document", document, caption,
+                        m -> ((TelegramDocument) m.getMedia()).getFileId());
+    }
+
+    /**
+     * Sends a general file, streaming it from the provided source. Streamed uploads do not use the
+     * {@link FileIdCache}.
+     * @param chatId the chat to send it to
+     * @param document the file
+     * @param caption the caption, or null
+     * @return
+     */
+    public TelegramResponse<TelegramMediaMessage<TelegramDocument>> sendDocument(long chatId,
+                                                                               StreamingUpload document,
+                                                                               String caption) {
+        return await(sendDocumentAsync(chatId, document, caption));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendDocument(long, StreamingUpload, String)}.
+     * @param chatId the chat to send it to
+     * @param document the file
+     * @param caption the caption, or null
+     * @return a future completing with the sent message
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramDocument>>>
+    sendDocumentAsync(long chatId, StreamingUpload document, String caption) {
+        return (CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramDocument>>>) (CompletableFuture<?>)
+                requestChatResourceAsync(chatId, "sendDocument", createUpload(chatId, "document", document, caption),
+                        TelegramMessage.GENERIC_TYPE);
+    }
+
+    /**
+     * Sends a video, streaming it from the provided source.
+     * @param chatId the chat to send it to
+     * @param video the video
+     * @param caption the caption, or null
+     * @return
+     */
+    public TelegramResponse<TelegramMediaMessage<TelegramVideo>> sendVideo(long chatId, StreamingUpload video,
+                                                                         String caption) {
+        return await(sendVideoAsync(chatId, video, caption));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendVideo(long, StreamingUpload, String)}.
+     * @param chatId the chat to send it to
+     * @param video the video
+     * @param caption the caption, or null
+     * @return a future completing with the sent message
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramVideo>>>
+    sendVideoAsync(long chatId, StreamingUpload video, String caption) {
+        return (CompletableFuture<TelegramResponse<TelegramMediaMessage<TelegramVideo>>>) (CompletableFuture<?>)
+                requestChatResourceAsync(chatId, "sendVideo", createUpload(chatId, "video", video, caption),
+                        TelegramMessage.GENERIC_TYPE);
+    }
+
+    /**
+     * Sends a file, by file id if the cache knows it and by uploading it otherwise.
+     * @param chatId the chat to send it to
+     * @param method the api method
+     * @param field the name of the file field, which is also the kind of media
+     * @param file the file
+     * @param caption the caption, or null
+     * @param fileIdOf extracts the file id from the sent message
+     * @return a future completing with the sent message
+     */
+    private CompletableFuture<TelegramResponse<? extends TelegramMessage>>
+    sendFileAsync(long chatId, String method, String field, File file, String caption,
+                  Function<TelegramMediaMessage<?>, String> fileIdOf) {
+
+        // A local server reads the file itself
+        if (localServer) {
+            JsonRequest message = JsonRequest.of(gen -> {
+                gen.writeNumberField("chat_id", chatId);
+                gen.writeStringField(field, file.getAbsoluteFile().toURI().toString());
+                if (caption != null) {
+                    gen.writeStringField("caption", caption);
+                }
+            });
+            return requestChatResourceAsync(chatId, method, message, TelegramMessage.GENERIC_TYPE);
+        }
+
+        StreamingUpload upload;
+        String key = null;
+        try {
+            upload = StreamingUpload.of(file.toPath());
+            if (fileIdCache != null) {
+                key = FileIdCache.key(field, file.toPath());
+            }
+        } catch (IOException e) {
+            CompletableFuture<TelegramResponse<? extends TelegramMessage>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new UncheckedIOException(e));
+            return failed;
+        }
+
+        // Without a cache, always upload
+        if (key == null) {
+            return requestChatResourceAsync(chatId, method, createUpload(chatId, field, upload, caption),
+                    TelegramMessage.GENERIC_TYPE);
+        }
+
+        // Upload on a miss and remember the file id
+        String cacheKey = key;
+        Supplier<CompletableFuture<TelegramResponse<? extends TelegramMessage>>> uploadAndCache = () ->
+                requestChatResourceAsync(chatId, method, createUpload(chatId, field, upload, caption),
+                        TelegramMessage.GENERIC_TYPE).thenApply(response -> {
+                    if (response.isOk() && response.getResult() instanceof TelegramMediaMessage) {
+                        String fileId = fileIdOf.apply((TelegramMediaMessage<?>) response.getResult());
+                        if (fileId != null) {
+                            fileIdCache.put(cacheKey, fileId);
+                        }
+                    }
+                    return response;
+                });
+        String fileId = fileIdCache.get(key);
+        if (fileId == null) {
+            return uploadAndCache.get();
+        }
+
+        // Send by file id, falling back to an upload only if Telegram no longer accepts the file id. Other
+        // errors, such as an unknown chat, would fail the upload just the same.
+        JsonRequest message = JsonRequest.of(gen -> {
+            gen.writeNumberField("chat_id", chatId);
+            gen.writeStringField(field, fileId);
+            if (caption != null) {
+                gen.writeStringField("caption", caption);
+            }
+        });
+        return requestChatResourceAsync(chatId, method, message, TelegramMessage.GENERIC_TYPE).
+                handle((response, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof TelegramApiException && isFileIdRejected((TelegramApiException) cause)) {
+                        fileIdCache.remove(cacheKey);
+                        return uploadAndCache.get();
+                    } else if (error != null) {
+                        CompletableFuture<TelegramResponse<? extends TelegramMessage>> failed =
+                                new CompletableFuture<>();
+                        failed.completeExceptionally(cause);
+                        return failed;
+                    }
+                    return CompletableFuture.<TelegramResponse<? extends TelegramMessage>>completedFuture(response);
+                }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Returns whether Telegram refused a send because of its file id, such as one that expired or belongs to
+     * another bot, as opposed to the rest of the request.
+     */
+    private static boolean isFileIdRejected(TelegramApiException e) {
+        String description = e.getDescription() == null ? "" : e.getDescription().toLowerCase(Locale.ROOT);
+        return e.getResponse().getStatus() == 400 &&
+                (description.contains("file identifier") || description.contains("wrong file"));
+    }
+
+    /**
+     * Creates a multipart upload of a file, streamed with chunked transfer encoding.
+     */
+    private static StreamedEntity createUpload(long chatId, String field, StreamingUpload file, String caption) {
+        FormDataMultiPart upload = new FormDataMultiPart();
+        upload.field("chat_id", Long.toString(chatId));
+        if (caption != null) {
+            upload.field("caption", caption);
+        }
+        upload.bodyPart(new FormDataBodyPart(
+                FormDataContentDisposition.name(field).fileName(file.getFileName()).build(),
+                file, MediaType.APPLICATION_OCTET_STREAM_TYPE));
+        return new StreamedEntity(Entity.entity(upload, MediaType.MULTIPART_FORM_DATA_TYPE));
+    }
+
+    /**
+     * Calls the requested url and returns the expected data. Failed calls are retried according to the
+     * {@link RetryPolicy}; once it gives up, the last error is thrown.
      * @param method
      * @param requestEntity the data to submit
      * @param responseType the expected return type
      * @return
+     * @throws TelegramApiException when the Telegram servers answered with an error
+     * @throws javax.ws.rs.ProcessingException when the request could not be made or the response not be read
      */
     protected<T> T requestResource(String method, Object requestEntity, GenericType<T> responseType) {
-        return api.path(method).request().post(Entity.json(requestEntity), responseType);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return readResponse(request(method, requestEntity).post(toEntity(requestEntity)), responseType);
+            } catch (RuntimeException e) {
+                long delay = retryPolicy.getDelay(attempt, e);
+                if (delay < 0) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts building a request to the provided method, for calls which need per-request properties.
+     * @param method
+     * @return
+     */
+    protected Invocation.Builder request(String method) {
+        return api.path(method).request();
+    }
+
+    /**
+     * Calls the requested url without blocking the caller. The request is executed by Jersey's async invoker;
+     * the returned future completes on one of its threads, so dependent stages should not block.
+     * Failed calls are retried according to the {@link RetryPolicy} without holding on to a thread while waiting.
+     * Once it gives up, the future completes exceptionally with the same exception
+     * {@link #requestResource(String, Object, GenericType)} would throw.
+     * @param method
+     * @param requestEntity the data to submit
+     * @param responseType the expected return type
+     * @return a future completing with the response
+     */
+    protected<T> CompletableFuture<T> requestResourceAsync(String method, Object requestEntity,
+                                                           GenericType<T> responseType) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        requestResourceAsync(method, requestEntity, responseType, 1, future);
+        return future;
+    }
+
+    /**
+     * Makes a single attempt of an asynchronous call, scheduling the next attempt if it fails.
+     */
+    private<T> void requestResourceAsync(String method, Object requestEntity, GenericType<T> responseType,
+                                         int attempt, CompletableFuture<T> future) {
+        request(method, requestEntity).async().post(toEntity(requestEntity), new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                try {
+                    future.complete(readResponse(response, responseType));
+                } catch (Throwable t) {
+                    failed(t);
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                long delay = retryPolicy.getDelay(attempt, throwable);
+                if (delay < 0) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    RETRY_TIMER.schedule(() -> requestResourceAsync(method, requestEntity, responseType,
+                            attempt + 1, future), delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts building a request carrying the provided data. Streamed entities are sent in chunks instead of being
+     * buffered to determine their length.
+     */
+    private Invocation.Builder request(String method, Object requestEntity) {
+        Invocation.Builder builder = request(method);
+        if (requestEntity instanceof StreamedEntity) {
+            builder.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        }
+        return builder;
+    }
+
+    /**
+     * Wraps request data in an entity. Data that's already an entity, such as a multipart upload, is sent as is,
+     * anything else as JSON.
+     */
+    private static Entity<?> toEntity(Object requestEntity) {
+        if (requestEntity instanceof StreamedEntity) {
+            return ((StreamedEntity) requestEntity).entity;
+        } else if (requestEntity instanceof Entity) {
+            return (Entity<?>) requestEntity;
+        }
+        return Entity.json(requestEntity);
+    }
+
+    /**
+     * Returns the id of the chat an update belongs to, which orders its handling in a
+     * {@link nl.lukasmiedema.telegrambotapi.dispatch.ChatOrderedDispatcher}.
+     * @param update the update
+     * @return the chat id, or 0 if the update has no chat
+     */
+    static long getChatId(TelegramUpdate update) {
+        TelegramMessage message = update.getMessage();
+        return message == null || message.getChat() == null ? 0 : message.getChat().getId();
+    }
+
+    /**
+     * Reads the response of a call, turning error responses into a {@link TelegramApiException}.
+     * The response is closed afterwards.
+     * @param response the response
+     * @param responseType the expected return type
+     * @return
+     * @throws TelegramApiException when the Telegram servers answered with an error
+     */
+    protected static<T> T readResponse(Response response, GenericType<T> responseType) {
+        try {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                TelegramResponse<?> error = null;
+                try {
+                    error = response.readEntity(ERROR_TYPE);
+                } catch (RuntimeException e) {
+                    // Not a Telegram error body, so all we have is the status
+                }
+                throw new TelegramApiException(response.getStatus(), error);
+            }
+            return response.readEntity(responseType);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Calls the requested url for a method which sends something to a chat. When a {@link SendScheduler} has been
+     * configured, the call waits until the rate limits of the chat allow it.
+     * @param chatId the chat the request is addressed to
+     * @param method
+     * @param requestEntity the data to submit
+     * @param responseType the expected return type
+     * @return
+     */
+    protected<T> T requestChatResource(long chatId, String method, Object requestEntity,
+                                       GenericType<T> responseType) {
+        if (sendScheduler == null) {
+            return requestResource(method, requestEntity, responseType);
+        }
+        return await(requestChatResourceAsync(chatId, method, requestEntity, responseType));
+    }
+
+    /**
+     * Asynchronous version of {@link #requestChatResource(long, String, Object, GenericType)}.
+     * @param chatId the chat the request is addressed to
+     * @param method
+     * @param requestEntity the data to submit
+     * @param responseType the expected return type
+     * @return a future completing with the response
+     */
+    protected<T> CompletableFuture<T> requestChatResourceAsync(long chatId, String method, Object requestEntity,
+                                                               GenericType<T> responseType) {
+        if (sendScheduler == null) {
+            return requestResourceAsync(method, requestEntity, responseType);
+        }
+        return sendScheduler.submit(chatId, () -> requestResourceAsync(method, requestEntity, responseType));
+    }
+
+    /**
+     * Blocks until the future completes, rethrowing the original exception if it failed.
+     * @param future
+     * @return the value of the future
+     */
+    protected static<T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * An entity which should be streamed rather than buffered, such as a large upload
+     */
+    private static class StreamedEntity {
+        private final Entity<?> entity;
+
+        private StreamedEntity(Entity<?> entity) {
+            this.entity = entity;
+        }
     }
 }
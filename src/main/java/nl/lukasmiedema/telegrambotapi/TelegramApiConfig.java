@@ -0,0 +1,437 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.dispatch.UpdateDispatcher;
+import nl.lukasmiedema.telegrambotapi.offset.OffsetStore;
+import nl.lukasmiedema.telegrambotapi.ratelimit.SendScheduler;
+import nl.lukasmiedema.telegrambotapi.ratelimit.TextCoalescer;
+import nl.lukasmiedema.telegrambotapi.transport.DefaultTransport;
+import nl.lukasmiedema.telegrambotapi.transport.TelegramTransport;
+import nl.lukasmiedema.telegrambotapi.upload.FileIdCache;
+import nl.lukasmiedema.telegrambotapi.webhook.NioWebhookServer;
+import nl.lukasmiedema.telegrambotapi.webhook.UpdateDeduplicator;
+
+import javax.net.ssl.SSLContext;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Optional settings for a {@link TelegramApi}. The settings are read once when the TelegramApi is constructed,
+ * changing them afterwards has no effect on existing instances.
+ * Usually these are set through {@link TelegramBot.Builder}.
+ * @author Lukas Miedema
+ */
+public class TelegramApiConfig {
+
+    private String apiUrl = TelegramApi.API_URL;
+    private String fileUrl = TelegramApi.FILE_URL;
+    private boolean localServer;
+    private SendScheduler sendScheduler;
+    private TelegramTransport transport = new DefaultTransport();
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private TextCoalescer textCoalescer;
+    private FileIdCache fileIdCache;
+    private UpdateDispatcher updateDispatcher;
+    private OffsetStore offsetStore;
+    private int pollTimeout = TelegramPollingApi.DEFAULT_POLL_TIMEOUT;
+    private int pollLimit = TelegramPollingApi.MAX_POLL_LIMIT;
+    private List<String> allowedUpdates;
+    private Executor pollExecutor;
+    private boolean nioWebhook;
+    private int webhookMaxBodySize = NioWebhookServer.DEFAULT_MAX_BODY_SIZE;
+    private SSLContext webhookTls;
+    private int webhookDedupWindow = UpdateDeduplicator.DEFAULT_WINDOW;
+    private Executor webhookExecutor;
+    private int webhookMaxConnections;
+
+    /**
+     * Sets the url of the Bot API, to which the bot token is appended. Defaults to {@link TelegramApi#API_URL}.
+     * @param apiUrl the url, such as <code>http://localhost:8081/bot</code>
+     * @return
+     */
+    public TelegramApiConfig apiUrl(String apiUrl) {
+        this.apiUrl = apiUrl;
+        return this;
+    }
+
+    /**
+     * Returns the url of the Bot API, to which the bot token is appended.
+     * @return
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Sets the url files are downloaded from, to which the bot token is appended. Defaults to
+     * {@link TelegramApi#FILE_URL}.
+     * @param fileUrl the url, such as <code>http://localhost:8081/file/bot</code>
+     * @return
+     */
+    public TelegramApiConfig fileUrl(String fileUrl) {
+        this.fileUrl = fileUrl;
+        return this;
+    }
+
+    /**
+     * Returns the url files are downloaded from, to which the bot token is appended.
+     * @return
+     */
+    public String getFileUrl() {
+        return fileUrl;
+    }
+
+    /**
+     * Sets whether the Bot API is a local server (started with <code>--local</code>) sharing this machine's
+     * file system. If so, files are uploaded by passing their path instead of their contents, and downloaded
+     * files are read straight from the path the server returns. Defaults to false.
+     * @param localServer whether the server shares our file system
+     * @return
+     */
+    public TelegramApiConfig localServer(boolean localServer) {
+        this.localServer = localServer;
+        return this;
+    }
+
+    /**
+     * Returns whether the Bot API is a local server sharing this machine's file system.
+     * @return
+     */
+    public boolean isLocalServer() {
+        return localServer;
+    }
+
+    /**
+     * Sets the scheduler used to pace messages sent to chats. When null (the default), messages are sent
+     * immediately without any rate limiting.
+     * @param sendScheduler the scheduler, or null
+     * @return
+     */
+    public TelegramApiConfig sendScheduler(SendScheduler sendScheduler) {
+        this.sendScheduler = sendScheduler;
+        return this;
+    }
+
+    /**
+     * Returns the scheduler used to pace messages sent to chats, or null if messages are not paced.
+     * @return
+     */
+    public SendScheduler getSendScheduler() {
+        return sendScheduler;
+    }
+
+    /**
+     * Sets the transport used to connect to the Telegram servers. Defaults to a {@link DefaultTransport}.
+     * @param transport the transport
+     * @return
+     */
+    public TelegramApiConfig transport(TelegramTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Returns the transport used to connect to the Telegram servers.
+     * @return
+     */
+    public TelegramTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the policy deciding whether failed requests are retried. Defaults to {@link RetryPolicy#DEFAULT}.
+     * Use {@link RetryPolicy#NONE} to never retry.
+     * @param retryPolicy the retry policy
+     * @return
+     */
+    public TelegramApiConfig retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Returns the policy deciding whether failed requests are retried.
+     * @return
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the coalescer merging texts sent to the same chat in quick succession. When null (the default),
+     * every text is sent as its own message. Replies are never merged.
+     * @param textCoalescer the coalescer, or null
+     * @return
+     */
+    public TelegramApiConfig textCoalescer(TextCoalescer textCoalescer) {
+        this.textCoalescer = textCoalescer;
+        return this;
+    }
+
+    /**
+     * Returns the coalescer merging texts sent to the same chat, or null if texts are not merged.
+     * @return
+     */
+    public TextCoalescer getTextCoalescer() {
+        return textCoalescer;
+    }
+
+    /**
+     * Sets the cache of file ids of previously uploaded content. When null (the default), files are uploaded
+     * every time they are sent.
+     * @param fileIdCache the cache, or null
+     * @return
+     */
+    public TelegramApiConfig fileIdCache(FileIdCache fileIdCache) {
+        this.fileIdCache = fileIdCache;
+        return this;
+    }
+
+    /**
+     * Returns the cache of file ids of previously uploaded content, or null if files are always uploaded.
+     * @return
+     */
+    public FileIdCache getFileIdCache() {
+        return fileIdCache;
+    }
+
+    /**
+     * Sets the dispatcher handling received updates. When null (the default), the polling thread handles every
+     * update itself before polling again, and web hook calls are answered once the update has been handled.
+     * With a dispatcher, the next poll is started as soon as the updates have been handed off, and web hook calls
+     * are answered as soon as the update has been queued.
+     * @param updateDispatcher the dispatcher, or null
+     * @return
+     */
+    public TelegramApiConfig updateDispatcher(UpdateDispatcher updateDispatcher) {
+        this.updateDispatcher = updateDispatcher;
+        return this;
+    }
+
+    /**
+     * Returns the dispatcher handling received updates, or null if they are handled by the receiving thread.
+     * @return
+     */
+    public UpdateDispatcher getUpdateDispatcher() {
+        return updateDispatcher;
+    }
+
+    /**
+     * Sets the store in which polling records which updates have been handled. When null (the default), polling
+     * starts from scratch on every restart and received updates are acknowledged as soon as they are handed off,
+     * so updates not handled before a crash are lost. With a store, updates are only acknowledged once handled,
+     * so after a crash they are received again (at least once), while updates already handled are skipped.
+     * @param offsetStore the store, or null
+     * @return
+     */
+    public TelegramApiConfig offsetStore(OffsetStore offsetStore) {
+        this.offsetStore = offsetStore;
+        return this;
+    }
+
+    /**
+     * Returns the store in which polling records which updates have been handled, or null if not recorded.
+     * @return
+     */
+    public OffsetStore getOffsetStore() {
+        return offsetStore;
+    }
+
+    /**
+     * Sets how long a single poll waits for updates to arrive. Defaults to
+     * {@link TelegramPollingApi#DEFAULT_POLL_TIMEOUT}.
+     * @param pollTimeout the timeout in seconds, 0 for short polling
+     * @return
+     */
+    public TelegramApiConfig pollTimeout(int pollTimeout) {
+        this.pollTimeout = pollTimeout;
+        return this;
+    }
+
+    /**
+     * Returns how long a single poll waits for updates to arrive, in seconds.
+     * @return
+     */
+    public int getPollTimeout() {
+        return pollTimeout;
+    }
+
+    /**
+     * Sets the maximum number of updates received per poll. Defaults to {@link TelegramPollingApi#MAX_POLL_LIMIT}.
+     * With an {@link UpdateDispatcher}, fewer are requested when its queue is filling up.
+     * @param pollLimit the limit, between 1 and {@link TelegramPollingApi#MAX_POLL_LIMIT}
+     * @return
+     */
+    public TelegramApiConfig pollLimit(int pollLimit) {
+        if (pollLimit < 1 || pollLimit > TelegramPollingApi.MAX_POLL_LIMIT) {
+            throw new IllegalArgumentException("pollLimit should be between 1 and " +
+                    TelegramPollingApi.MAX_POLL_LIMIT);
+        }
+        this.pollLimit = pollLimit;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of updates received per poll.
+     * @return
+     */
+    public int getPollLimit() {
+        return pollLimit;
+    }
+
+    /**
+     * Sets the kinds of updates to receive, such as <code>message</code>. When null (the default), the
+     * setting of the previous call to the Telegram servers is kept.
+     * @param allowedUpdates the kinds of updates, or null
+     * @return
+     */
+    public TelegramApiConfig allowedUpdates(List<String> allowedUpdates) {
+        this.allowedUpdates = allowedUpdates;
+        return this;
+    }
+
+    /**
+     * Returns the kinds of updates to receive, or null if unchanged.
+     * @return
+     */
+    public List<String> getAllowedUpdates() {
+        return allowedUpdates;
+    }
+
+    /**
+     * Sets the executor running the poll loop. When null (the default), a dedicated thread is started.
+     * The loop blocks for the lifetime of the bot, so the executor should start a thread per task, such as
+     * {@link nl.lukasmiedema.telegrambotapi.dispatch.Threads#newThreadPerTaskExecutor(String)}.
+     * @param pollExecutor the executor, or null
+     * @return
+     */
+    public TelegramApiConfig pollExecutor(Executor pollExecutor) {
+        this.pollExecutor = pollExecutor;
+        return this;
+    }
+
+    /**
+     * Returns the executor running the poll loop, or null if it runs on a dedicated thread.
+     * @return
+     */
+    public Executor getPollExecutor() {
+        return pollExecutor;
+    }
+
+    /**
+     * Sets whether web hook calls are received by a {@link NioWebhookServer} instead of a Jersey server.
+     * Defaults to false.
+     * @param nioWebhook whether to use the lightweight server
+     * @return
+     */
+    public TelegramApiConfig nioWebhook(boolean nioWebhook) {
+        this.nioWebhook = nioWebhook;
+        return this;
+    }
+
+    /**
+     * Returns whether web hook calls are received by a {@link NioWebhookServer}.
+     * @return
+     */
+    public boolean isNioWebhook() {
+        return nioWebhook;
+    }
+
+    /**
+     * Sets the maximum size in bytes of a web hook call accepted by the {@link NioWebhookServer}.
+     * Defaults to {@link NioWebhookServer#DEFAULT_MAX_BODY_SIZE}.
+     * @param webhookMaxBodySize the maximum size
+     * @return
+     */
+    public TelegramApiConfig webhookMaxBodySize(int webhookMaxBodySize) {
+        this.webhookMaxBodySize = webhookMaxBodySize;
+        return this;
+    }
+
+    /**
+     * Returns the maximum size in bytes of a web hook call accepted by the {@link NioWebhookServer}.
+     * @return
+     */
+    public int getWebhookMaxBodySize() {
+        return webhookMaxBodySize;
+    }
+
+    /**
+     * Sets the TLS settings used by the web hook server to accept HTTPS itself, without a proxy in front of it.
+     * Defaults to null, plain HTTP.
+     * @param webhookTls the TLS settings, for example from {@link nl.lukasmiedema.telegrambotapi.webhook.WebhookTls}
+     * @return
+     */
+    public TelegramApiConfig webhookTls(SSLContext webhookTls) {
+        this.webhookTls = webhookTls;
+        return this;
+    }
+
+    /**
+     * Returns the TLS settings used by the web hook server, or null for plain HTTP.
+     * @return
+     */
+    public SSLContext getWebhookTls() {
+        return webhookTls;
+    }
+
+    /**
+     * Sets the number of recent update ids a web hook remembers to recognize updates Telegram delivers again.
+     * Defaults to {@link UpdateDeduplicator#DEFAULT_WINDOW}.
+     * @param webhookDedupWindow the number of update ids, or 0 to handle every delivery
+     * @return
+     */
+    public TelegramApiConfig webhookDedupWindow(int webhookDedupWindow) {
+        this.webhookDedupWindow = webhookDedupWindow;
+        return this;
+    }
+
+    /**
+     * Returns the number of recent update ids a web hook remembers, or 0 if it doesn't.
+     * @return
+     */
+    public int getWebhookDedupWindow() {
+        return webhookDedupWindow;
+    }
+
+    /**
+     * Sets the executor handling web hook calls. For the Jersey server it runs the requests; for the
+     * {@link NioWebhookServer} it runs the handlers when there is no {@link UpdateDispatcher}.
+     * Defaults to null, the server's own threads.
+     * @param webhookExecutor the executor
+     * @return
+     */
+    public TelegramApiConfig webhookExecutor(Executor webhookExecutor) {
+        this.webhookExecutor = webhookExecutor;
+        return this;
+    }
+
+    /**
+     * Returns the executor handling web hook calls, or null to use the server's own threads.
+     * @return
+     */
+    public Executor getWebhookExecutor() {
+        return webhookExecutor;
+    }
+
+    /**
+     * Sets the maximum number of connections Telegram opens to the web hook at the same time, sent along
+     * with the web hook. Defaults to 0, the Telegram default of 40.
+     * @param webhookMaxConnections the maximum number of connections (1-100), or 0 for the default
+     * @return
+     */
+    public TelegramApiConfig webhookMaxConnections(int webhookMaxConnections) {
+        if (webhookMaxConnections < 0 || webhookMaxConnections > 100) {
+            throw new IllegalArgumentException("webhookMaxConnections should be between 1 and 100, or 0");
+        }
+        this.webhookMaxConnections = webhookMaxConnections;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of connections Telegram opens to the web hook, or 0 for the Telegram default.
+     * @return
+     */
+    public int getWebhookMaxConnections() {
+        return webhookMaxConnections;
+    }
+}
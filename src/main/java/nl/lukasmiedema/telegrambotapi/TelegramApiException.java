@@ -0,0 +1,66 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponse;
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponseParameters;
+
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * Thrown when the Telegram API answers a request with an error. It carries the error as described by the
+ * Telegram servers. Extends {@link WebApplicationException} so code catching the plain Jersey exceptions
+ * keeps working.
+ * @author Lukas Miedema
+ */
+public class TelegramApiException extends WebApplicationException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int errorCode;
+    private final String description;
+    private final TelegramResponseParameters parameters;
+
+    /**
+     * Construct a new TelegramApiException
+     * @param status the HTTP status code of the response
+     * @param response the deserialized error response, or null if the body could not be read
+     */
+    public TelegramApiException(int status, TelegramResponse<?> response) {
+        super(status + (response != null && response.getDescription() != null ?
+                ": " + response.getDescription() : ""), status);
+        this.errorCode = response != null && response.getErrorCode() != 0 ? response.getErrorCode() : status;
+        this.description = response != null ? response.getDescription() : null;
+        this.parameters = response != null ? response.getParameters() : null;
+    }
+
+    /**
+     * Returns the Telegram error code. This usually equals the HTTP status code.
+     * @return
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Returns the description of the error, or null if there was none.
+     * @return
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the additional error parameters, or null if there were none.
+     * @return
+     */
+    public TelegramResponseParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the number of seconds the Telegram servers asked us to wait before retrying, or 0 if not set.
+     * @return
+     */
+    public int getRetryAfter() {
+        return parameters != null ? parameters.getRetryAfter() : 0;
+    }
+}
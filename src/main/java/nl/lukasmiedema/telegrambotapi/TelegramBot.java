@@ -1,15 +1,34 @@
 package nl.lukasmiedema.telegrambotapi;
 
+import nl.lukasmiedema.telegrambotapi.dispatch.ChatOrderedDispatcher;
+import nl.lukasmiedema.telegrambotapi.dispatch.OverflowPolicy;
+import nl.lukasmiedema.telegrambotapi.dispatch.ThreadPerUpdateDispatcher;
+import nl.lukasmiedema.telegrambotapi.dispatch.Threads;
+import nl.lukasmiedema.telegrambotapi.dispatch.UpdateDispatcher;
+import nl.lukasmiedema.telegrambotapi.handler.Bulkhead;
+import nl.lukasmiedema.telegrambotapi.handler.DispatchTable;
 import nl.lukasmiedema.telegrambotapi.handler.MessageEvent;
 import nl.lukasmiedema.telegrambotapi.handler.MessageHandler;
 import nl.lukasmiedema.telegrambotapi.handler.MessageType;
+import nl.lukasmiedema.telegrambotapi.offset.FileOffsetStore;
+import nl.lukasmiedema.telegrambotapi.offset.OffsetStore;
+import nl.lukasmiedema.telegrambotapi.ratelimit.SendScheduler;
+import nl.lukasmiedema.telegrambotapi.ratelimit.TextCoalescer;
+import nl.lukasmiedema.telegrambotapi.transport.TelegramTransport;
+import nl.lukasmiedema.telegrambotapi.upload.FileIdCache;
 import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMediaMessage;
 import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMessage;
 import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramUpdate;
+import nl.lukasmiedema.telegrambotapi.webhook.UpdateDeduplicator;
+import nl.lukasmiedema.telegrambotapi.webhook.WebhookTls;
 
+import javax.net.ssl.SSLContext;
 import java.io.File;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Lukas Miedema
@@ -17,7 +36,7 @@ import java.util.*;
 public class TelegramBot {
 
     private final TelegramApi api;
-    private final Map<MessageType, List<MessageHandler>> messageHandlers;
+    private final DispatchTable dispatchTable;
 
     /**
      * Constructs a new TelegramBot with web hooks.
@@ -25,29 +44,32 @@ public class TelegramBot {
      * @param serverLocal the url to bind to for callbacks
      * @param serverRemote the remote view of this url (ie global IP)
      * @param cert location of the self-signed SSL certificate
+     * @param config the api settings
+     * @param webhookExecutor the executor for web hook calls owned by the API, or null
      */
-    private TelegramBot(String token, URI serverLocal, String serverRemote, File cert,
-                        Map<MessageType, List<MessageHandler>> messageHandlers) {
+    private TelegramBot(String token, URI serverLocal, String serverRemote, File cert, TelegramApiConfig config,
+                        ExecutorService webhookExecutor, Map<MessageType, List<MessageHandler>> messageHandlers) {
 
-        this.messageHandlers = messageHandlers;
+        this.dispatchTable = new DispatchTable(messageHandlers);
 
         // Create the API
-        this.api = new TelegramWebhookApi(token, serverLocal, this::callback);
+        this.api = new TelegramWebhookApi(token, config, serverLocal, this::callback, webhookExecutor);
 
         // Send the web hook
-        api.setWebhook(serverRemote, cert);
+        api.setWebhook(serverRemote, cert, config.getWebhookMaxConnections());
     }
 
     /**
      * Constructs a new TelegramBot with long polling.
      * @param token the bot token
+     * @param config the api settings
      */
-    private TelegramBot(String token, Map<MessageType, List<MessageHandler>> messageHandlers) {
+    private TelegramBot(String token, TelegramApiConfig config, Map<MessageType, List<MessageHandler>> messageHandlers) {
 
-        this.messageHandlers = messageHandlers;
+        this.dispatchTable = new DispatchTable(messageHandlers);
 
         // Create the API
-        this.api = new TelegramPollingApi(token, this::callback);
+        this.api = new TelegramPollingApi(token, config, this::callback);
     }
 
     /**
@@ -57,7 +79,7 @@ public class TelegramBot {
      */
     public TelegramBot(TelegramApi api, Map<MessageType, List<MessageHandler>> messageHandlers) {
         this.api = api;
-        this.messageHandlers = messageHandlers;
+        this.dispatchTable = new DispatchTable(messageHandlers);
     }
 
 
@@ -78,22 +100,14 @@ public class TelegramBot {
      */
     @SuppressWarnings("unchecked")
     public void dispatch(MessageEvent<?> event) {
-        for (Map.Entry<MessageType, List<MessageHandler>> e: messageHandlers.entrySet()) {
+        for (MessageHandler h: dispatchTable.getHandlers(event.getMessage())) {
 
-            // Check the type
-            if (e.getKey().typeOf(event.getMessage())) {
-
-                // Send the event to all handlers
-                for (MessageHandler h: e.getValue()) {
-
-                    // Stop as soon as the event is cancelled
-                    if (event.isCancelled()) {
-                        return;
-                    }
-
-                    h.handle(event, this.api);
-                }
+            // Stop as soon as the event is cancelled
+            if (event.isCancelled()) {
+                return;
             }
+
+            h.handle(event, this.api);
         }
     }
 
@@ -117,6 +131,10 @@ public class TelegramBot {
         private URI serverLocal;
         private File cert;
         private boolean webhooks = false; // true for webhooks, false for long polling
+        private int webhookConcurrency; // 0 for the server's own threads
+
+        // Api settings
+        private final TelegramApiConfig apiConfig = new TelegramApiConfig();
 
         private final Map<MessageType, List<MessageHandler>> messageHandlers = new LinkedHashMap<>();
 
@@ -144,6 +162,18 @@ public class TelegramBot {
             return this;
         }
 
+        /**
+         * Registers a MessageHandler which runs in a {@link Bulkhead}, so a slow handler can't hold up the
+         * handlers after it for longer than the deadline of the bulkhead.
+         * @param type
+         * @param handler
+         * @param bulkhead the bulkhead, which may be shared with other handlers
+         */
+        public <T extends TelegramMessage> Builder register(MessageType<T> type, MessageHandler<T> handler,
+                                                            Bulkhead bulkhead) {
+            return register(type, bulkhead.wrap(handler));
+        }
+
         /**
          * Enables webhooks instead of long polling (which is default)
          * @param serverRemote the callback url to send to the telegram servers
@@ -159,6 +189,264 @@ public class TelegramBot {
             return this;
         }
 
+        /**
+         * Paces all messages sent to chats with a {@link SendScheduler} using the default Telegram rate limits.
+         * @return
+         */
+        public Builder rateLimited() {
+            return rateLimited(new SendScheduler());
+        }
+
+        /**
+         * Paces all messages sent to chats with the provided {@link SendScheduler}.
+         * @param scheduler the scheduler, which may be shared between bots
+         * @return
+         */
+        public Builder rateLimited(SendScheduler scheduler) {
+            apiConfig.sendScheduler(scheduler);
+            return this;
+        }
+
+        /**
+         * Sets the transport used to connect to the Telegram servers, for example a
+         * {@link nl.lukasmiedema.telegrambotapi.transport.PooledTransport}.
+         * @param transport the transport, which may be shared between bots
+         * @return
+         */
+        public Builder transport(TelegramTransport transport) {
+            apiConfig.transport(transport);
+            return this;
+        }
+
+        /**
+         * Sets the policy deciding whether failed requests to the Telegram API are retried.
+         * Defaults to {@link RetryPolicy#DEFAULT}.
+         * @param retryPolicy the retry policy
+         * @return
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            apiConfig.retryPolicy(retryPolicy);
+            return this;
+        }
+
+        /**
+         * Merges texts sent to the same chat within the provided window into a single message, saving API calls
+         * and rate limit slots. Blocking sends wait for the window to close. Replies are never merged.
+         * @param window how long to wait for more texts after the first one
+         * @param unit the unit of window
+         * @return
+         */
+        public Builder coalesceTexts(long window, TimeUnit unit) {
+            apiConfig.textCoalescer(new TextCoalescer(window, unit));
+            return this;
+        }
+
+        /**
+         * Remembers the file ids of uploaded photos and documents, so sending the same content again does not
+         * upload it again.
+         * @param fileIdCache the cache. File ids are only valid for the bot that uploaded the file, so a cache
+         *                    should not be shared between bots.
+         * @return
+         */
+        public Builder fileIdCache(FileIdCache fileIdCache) {
+            apiConfig.fileIdCache(fileIdCache);
+            return this;
+        }
+
+        /**
+         * Handles updates on a pool of dispatcher threads instead of the receiving thread. With polling, the next
+         * poll is started while the previous updates are still being handled; when the queue is full, polling
+         * waits for the handlers to catch up. With web hooks, Telegram's call is answered as soon as the update
+         * has been queued.
+         * @param threads the number of dispatcher threads. With more than one, updates may be handled out of order.
+         * @param queueCapacity the maximum number of received updates waiting to be handled
+         * @return
+         */
+        public Builder pipelined(int threads, int queueCapacity) {
+            return pipelined(threads, queueCapacity, OverflowPolicy.BLOCK);
+        }
+
+        /**
+         * Handles updates on a pool of dispatcher threads instead of the receiving thread, see
+         * {@link #pipelined(int, int)}.
+         * @param threads the number of dispatcher threads. With more than one, updates may be handled out of order.
+         * @param queueCapacity the maximum number of received updates waiting to be handled
+         * @param overflowPolicy what to do with an update when the queue is full
+         * @return
+         */
+        public Builder pipelined(int threads, int queueCapacity, OverflowPolicy overflowPolicy) {
+            apiConfig.updateDispatcher(new UpdateDispatcher(threads, queueCapacity, overflowPolicy));
+            return this;
+        }
+
+        /**
+         * Handles updates on multiple threads, while handling the updates of each chat in the order they arrived.
+         * See {@link ChatOrderedDispatcher}.
+         * @param lanes the number of lanes chats are spread over, and of dispatcher threads
+         * @param laneCapacity the maximum number of updates waiting in a lane
+         * @return
+         */
+        public Builder perChatOrdered(int lanes, int laneCapacity) {
+            return perChatOrdered(lanes, laneCapacity, OverflowPolicy.BLOCK);
+        }
+
+        /**
+         * Handles updates on multiple threads, while handling the updates of each chat in the order they arrived.
+         * See {@link ChatOrderedDispatcher}.
+         * @param lanes the number of lanes chats are spread over, and of dispatcher threads
+         * @param laneCapacity the maximum number of updates waiting in a lane
+         * @param overflowPolicy what to do with an update when its lane is full
+         * @return
+         */
+        public Builder perChatOrdered(int lanes, int laneCapacity, OverflowPolicy overflowPolicy) {
+            apiConfig.updateDispatcher(new ChatOrderedDispatcher(lanes, laneCapacity, overflowPolicy));
+            return this;
+        }
+
+        /**
+         * Handles every update on a thread of its own, a virtual thread where the JVM supports them. Suited to
+         * handlers which mostly wait, for example on other services. See {@link ThreadPerUpdateDispatcher}.
+         * @param maxInFlight the maximum number of updates handled at the same time, or 0 for no maximum. Without
+         *                    virtual threads, this is also the number of platform threads and should be set.
+         * @return
+         */
+        public Builder threadPerUpdate(int maxInFlight) {
+            return threadPerUpdate(maxInFlight, OverflowPolicy.BLOCK);
+        }
+
+        /**
+         * Handles every update on a thread of its own, a virtual thread where the JVM supports them.
+         * See {@link ThreadPerUpdateDispatcher}.
+         * @param maxInFlight the maximum number of updates handled at the same time, or 0 for no maximum
+         * @param overflowPolicy what to do with an update when the maximum is reached
+         * @return
+         */
+        public Builder threadPerUpdate(int maxInFlight, OverflowPolicy overflowPolicy) {
+            apiConfig.updateDispatcher(new ThreadPerUpdateDispatcher(maxInFlight, overflowPolicy));
+            return this;
+        }
+
+        /**
+         * Receives web hook calls on a lightweight built-in server instead of Jersey. Only calls to the path of the
+         * local url passed to {@link #webhooks(String, URI, File)} are accepted, so use a secret path and let the
+         * remote url end in the same path.
+         * @param maxBodySize the maximum size of a call in bytes
+         * @return
+         */
+        public Builder nioWebhook(int maxBodySize) {
+            apiConfig.nioWebhook(true).webhookMaxBodySize(maxBodySize);
+            return this;
+        }
+
+        /**
+         * Lets the web hook server accept HTTPS itself, so Telegram can call it without a proxy in front of it.
+         * TLS sessions are cached, so Telegram's reconnects skip most of the handshake. For a self-signed
+         * certificate, still pass the certificate file to {@link #webhooks(String, URI, File)}.
+         * The local url should then use https, and a port Telegram supports (443, 80, 88 or 8443).
+         * @param tls the TLS settings, for example from {@link WebhookTls}
+         * @return
+         */
+        public Builder webhookTls(SSLContext tls) {
+            apiConfig.webhookTls(tls);
+            return this;
+        }
+
+        /**
+         * Sets how many recent update ids a web hook remembers, to ignore updates Telegram delivers again after a
+         * slow or failed call. Defaults to {@link UpdateDeduplicator#DEFAULT_WINDOW}.
+         * @param window the number of update ids, or 0 to handle every delivery
+         * @return
+         */
+        public Builder webhookDedupWindow(int window) {
+            apiConfig.webhookDedupWindow(window);
+            return this;
+        }
+
+        /**
+         * Lets Telegram make up to the provided number of web hook calls at the same time, and handles each
+         * on its own thread: a virtual thread where supported, otherwise one of a pool of that size.
+         * Without a dispatcher, this is the number of updates handled at the same time. The threads are stopped
+         * with {@link TelegramWebhookApi#stop()}. Has no effect when an executor is set with
+         * {@link #webhookExecutor(Executor)}.
+         * @param maxConnections the number of connections Telegram may open (1-100)
+         * @return
+         */
+        public Builder webhookConcurrency(int maxConnections) {
+            if (maxConnections < 1 || maxConnections > 100) {
+                throw new IllegalArgumentException("maxConnections should be between 1 and 100");
+            }
+            apiConfig.webhookMaxConnections(maxConnections);
+            this.webhookConcurrency = maxConnections;
+            return this;
+        }
+
+        /**
+         * Handles web hook calls on the provided executor instead of the server's own threads.
+         * See {@link TelegramApiConfig#webhookExecutor(Executor)}.
+         * @param executor the executor
+         * @return
+         */
+        public Builder webhookExecutor(Executor executor) {
+            apiConfig.webhookExecutor(executor);
+            return this;
+        }
+
+        /**
+         * Records which updates have been handled, so a restarted bot continues where it left off instead of
+         * losing or redelivering updates. Has no effect with web hooks.
+         * @param offsetStore the store, for example a {@link FileOffsetStore}
+         * @return
+         */
+        public Builder offsetStore(OffsetStore offsetStore) {
+            apiConfig.offsetStore(offsetStore);
+            return this;
+        }
+
+        /**
+         * Tunes long polling. Has no effect with web hooks.
+         * @param timeout how long a single poll waits for updates to arrive, in seconds
+         * @param limit the maximum number of updates received per poll, at most 100
+         * @param allowedUpdates the kinds of updates to receive, such as <code>message</code>.
+         *                       When empty, the setting of the previous poll is kept.
+         * @return
+         */
+        public Builder polling(int timeout, int limit, String... allowedUpdates) {
+            apiConfig.pollTimeout(timeout).pollLimit(limit).
+                    allowedUpdates(allowedUpdates.length == 0 ? null : Arrays.asList(allowedUpdates));
+            return this;
+        }
+
+        /**
+         * Sets the urls of the Bot API and of file downloads, for example to use a mock server.
+         * The bot token is appended to both.
+         * @param apiUrl the url of the Bot API, defaults to {@link TelegramApi#API_URL}
+         * @param fileUrl the url files are downloaded from, defaults to {@link TelegramApi#FILE_URL}
+         * @return
+         */
+        public Builder apiUrl(String apiUrl, String fileUrl) {
+            apiConfig.apiUrl(apiUrl).fileUrl(fileUrl);
+            return this;
+        }
+
+        /**
+         * Uses a self-hosted Bot API server started with <code>--local</code> on this machine. This lifts the
+         * upload and download size limits, and files are passed by path instead of being sent over HTTP.
+         * @param serverUrl the url of the server, such as <code>http://localhost:8081</code>
+         * @return
+         */
+        public Builder localServer(String serverUrl) {
+            apiConfig.apiUrl(serverUrl + "/bot").fileUrl(serverUrl + "/file/bot").localServer(true);
+            return this;
+        }
+
+        /**
+         * Returns the api settings being built, so a {@link TelegramBotHost} can add its shared resources.
+         * @return
+         */
+        TelegramApiConfig getApiConfig() {
+            return apiConfig;
+        }
+
         /**
          * Builds the TelegramBot
          * @return
@@ -173,9 +461,16 @@ public class TelegramBot {
 
             // Make a TelegramBot
             if (webhooks) {
-                return new TelegramBot(token, serverLocal, serverRemote, cert, handlersCopy);
+
+                // Create the threads for web hook calls, which are the API's to shut down
+                ExecutorService webhookExecutor = null;
+                if (webhookConcurrency > 0 && apiConfig.getWebhookExecutor() == null) {
+                    webhookExecutor = Threads.newBoundedExecutor("telegram-bot-api webhook", webhookConcurrency);
+                }
+                return new TelegramBot(token, serverLocal, serverRemote, cert, apiConfig, webhookExecutor,
+                        handlersCopy);
             } else {
-                return new TelegramBot(token, handlersCopy);
+                return new TelegramBot(token, apiConfig, handlersCopy);
             }
         }
     }
@@ -0,0 +1,181 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.dispatch.Threads;
+import nl.lukasmiedema.telegrambotapi.dispatch.UpdateDispatcher;
+import nl.lukasmiedema.telegrambotapi.transport.PooledTransport;
+import nl.lukasmiedema.telegrambotapi.transport.TelegramTransport;
+
+import javax.ws.rs.client.Client;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs many bots in one JVM on shared resources, so the cost of an additional bot stays small:
+ * <ul>
+ *     <li>All bots share one HTTP client, and with it one connection pool and one JSON provider.</li>
+ *     <li>Poll loops run on virtual threads where available (Java 21 and up), so a bot waiting for updates
+ *     does not hold on to a platform thread.</li>
+ *     <li>Updates of all bots are handled by one pool of dispatcher threads.</li>
+ * </ul>
+ * Bots remain isolated from each other: every bot has its own bounded queue of updates and never occupies more
+ * than a fixed number of dispatcher threads, so a slow or busy bot cannot starve the others. Rate limits,
+ * retries and other settings are configured per bot on its {@link TelegramBot.Builder}.
+ * Instances should be constructed via {@link TelegramBotHost.Builder}.
+ * @author Lukas Miedema
+ */
+public class TelegramBotHost implements AutoCloseable {
+
+    private final TelegramTransport transport;
+    private final ExecutorService pollExecutor;
+    private final ExecutorService dispatchExecutor;
+    private final int concurrencyPerBot;
+    private final int queueCapacityPerBot;
+    private final List<TelegramBot> bots = new ArrayList<>();
+    private final List<UpdateDispatcher> dispatchers = new ArrayList<>();
+
+    private TelegramBotHost(Builder builder) {
+        this.transport = new SharedTransport(builder.transport);
+        this.pollExecutor = Threads.newThreadPerTaskExecutor("telegram-bot-api poll thread");
+        this.dispatchExecutor = Executors.newFixedThreadPool(builder.dispatcherThreads,
+                Threads.named("telegram-bot-api host dispatcher", false));
+        this.concurrencyPerBot = builder.concurrencyPerBot;
+        this.queueCapacityPerBot = builder.queueCapacityPerBot;
+    }
+
+    /**
+     * Builds a bot on the shared resources of this host and starts it. The transport, poll executor and
+     * dispatcher set on the builder are replaced by the shared ones.
+     * @param builder the builder of the bot
+     * @return the started bot
+     */
+    public synchronized TelegramBot add(TelegramBot.Builder builder) {
+        UpdateDispatcher dispatcher = new UpdateDispatcher(dispatchExecutor, concurrencyPerBot, queueCapacityPerBot);
+        builder.getApiConfig().transport(transport).pollExecutor(pollExecutor).updateDispatcher(dispatcher);
+        TelegramBot bot = builder.build();
+        dispatchers.add(dispatcher);
+        bots.add(bot);
+        return bot;
+    }
+
+    /**
+     * Returns the bots running on this host.
+     * @return
+     */
+    public synchronized List<TelegramBot> getBots() {
+        return Collections.unmodifiableList(new ArrayList<>(bots));
+    }
+
+    /**
+     * Stops polling and dispatching for all bots and closes the shared connection pool.
+     */
+    @Override
+    public synchronized void close() {
+        for (TelegramBot bot : bots) {
+            if (bot.getAPI() instanceof TelegramPollingApi) {
+                ((TelegramPollingApi) bot.getAPI()).stop();
+            } else if (bot.getAPI() instanceof TelegramWebhookApi) {
+                ((TelegramWebhookApi) bot.getAPI()).stop();
+            }
+        }
+        pollExecutor.shutdownNow();
+        dispatchers.forEach(UpdateDispatcher::shutdown);
+        dispatchExecutor.shutdownNow();
+        transport.close();
+    }
+
+    /**
+     * Hands out the same client to every bot
+     */
+    private static class SharedTransport implements TelegramTransport {
+        private final TelegramTransport delegate;
+        private Client client;
+
+        private SharedTransport(TelegramTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized Client createClient() {
+            if (client == null) {
+                client = delegate.createClient();
+            }
+            return client;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (client != null) {
+                client.close();
+            }
+            delegate.close();
+        }
+    }
+
+    /**
+     * Builder for a TelegramBotHost
+     */
+    public static class Builder {
+
+        private TelegramTransport transport;
+        private int dispatcherThreads = Runtime.getRuntime().availableProcessors() * 2;
+        private int concurrencyPerBot = 1;
+        private int queueCapacityPerBot = 100;
+
+        /**
+         * Sets the transport providing the shared client. Defaults to a {@link PooledTransport} with default
+         * settings; its pool should be sized for one long poll per bot plus the outgoing requests.
+         * @param transport the transport
+         * @return
+         */
+        public Builder transport(TelegramTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads handling the updates of all bots. Defaults to twice the number of processors.
+         * @param dispatcherThreads the number of threads
+         * @return
+         */
+        public Builder dispatcherThreads(int dispatcherThreads) {
+            this.dispatcherThreads = dispatcherThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of updates a single bot handles at the same time. Defaults to 1, which handles
+         * the updates of every bot in order.
+         * @param concurrencyPerBot the maximum number of updates
+         * @return
+         */
+        public Builder concurrencyPerBot(int concurrencyPerBot) {
+            this.concurrencyPerBot = concurrencyPerBot;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of received updates waiting to be handled per bot. When a bot's queue is full,
+         * it stops polling until its handlers catch up. Defaults to 100.
+         * @param queueCapacityPerBot the maximum number of updates
+         * @return
+         */
+        public Builder queueCapacityPerBot(int queueCapacityPerBot) {
+            this.queueCapacityPerBot = queueCapacityPerBot;
+            return this;
+        }
+
+        /**
+         * Builds the TelegramBotHost
+         * @return
+         */
+        public TelegramBotHost build() {
+            if (transport == null) {
+                transport = new PooledTransport.Builder().build();
+            }
+            return new TelegramBotHost(this);
+        }
+    }
+}
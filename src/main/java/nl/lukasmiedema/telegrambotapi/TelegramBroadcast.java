@@ -0,0 +1,369 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.ratelimit.TokenBucket;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramParseMode;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramTextMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.request.JsonRequest;
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponse;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
+
+/**
+ * Sends one text message to a large number of chats. The message body is serialized once and only the chat id
+ * is written per recipient. Sends are paced at a fixed rate and a bounded number of them is in flight at once.
+ * When the api has a {@link nl.lukasmiedema.telegrambotapi.ratelimit.SendScheduler}, sends also go through it, so
+ * the broadcast shares its limits with the bot's other messages. Without one, the broadcast's rate is not
+ * coordinated with other sends using the same token.
+ * <p>
+ * When a checkpoint file is configured, the broadcast regularly records how many recipients (in stream order)
+ * have been handled. Running the same broadcast again with the same chat id stream skips those recipients.
+ * Recipients handled after the last checkpoint may receive the message twice.
+ * Instances should be constructed via {@link TelegramBroadcast.Builder}.
+ * @author Lukas Miedema
+ */
+public class TelegramBroadcast {
+
+    private static final byte[] CHAT_ID_PREFIX = "{\"chat_id\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final TelegramApi api;
+    private final byte[] body;
+    private final int ratePerSecond;
+    private final int maxInFlight;
+    private final Path checkpoint;
+    private final int checkpointInterval;
+    private final Listener listener;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Tracks which recipients after the checkpointed prefix have been handled
+    private final BitSet handled = new BitSet();
+    private long handledPrefix;
+    private long lastCheckpoint;
+    private long written = -1;
+
+    // Not a monitor: blocking file I/O while holding one pins a virtual thread to its carrier
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+    private TelegramBroadcast(Builder builder) {
+        this.api = builder.api;
+        this.ratePerSecond = builder.ratePerSecond;
+        this.maxInFlight = builder.maxInFlight;
+        this.checkpoint = builder.checkpoint;
+        this.checkpointInterval = builder.checkpointInterval;
+        this.listener = builder.listener;
+
+        // Serialize everything but the chat id once
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            JsonRequest.of(gen -> {
+                gen.writeStringField("text", builder.text);
+                if (builder.mode.toString() != null) {
+                    gen.writeStringField("parse_mode", builder.mode.toString());
+                }
+                gen.writeBooleanField("disable_web_page_preview", builder.disableWebPagePreview);
+            }).write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.body = out.toByteArray();
+    }
+
+    /**
+     * Runs the broadcast, blocking until every recipient has been handled.
+     * @param chatIds the recipients. When resuming from a checkpoint, this should be the same stream in the
+     *                same order as the interrupted run.
+     * @return the number of recipients skipped because of the checkpoint
+     * @throws UncheckedIOException if the checkpoint file cannot be read or written. No further sends are started
+     *                              once a checkpoint fails, and the exception is thrown when those in flight
+     *                              have completed.
+     */
+    public long run(LongStream chatIds) {
+
+        // Resume where we stopped
+        long skip = readCheckpoint();
+        synchronized (handled) {
+            handledPrefix = skip;
+            lastCheckpoint = skip;
+        }
+
+        TokenBucket bucket = new TokenBucket(ratePerSecond, 1, TimeUnit.SECONDS, 1);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<UncheckedIOException> checkpointFailure = new AtomicReference<>();
+        PrimitiveIterator.OfLong it = chatIds.iterator();
+
+        long index = 0;
+        for (; it.hasNext() && checkpointFailure.get() == null; index++) {
+            long chatId = it.nextLong();
+            if (index < skip) {
+                continue;
+            }
+
+            // Wait for room and for our turn
+            inFlight.acquireUninterruptibly();
+            long slot = bucket.reserve(System.nanoTime());
+            for (long wait; (wait = slot - System.nanoTime()) > 0; ) {
+                LockSupport.parkNanos(wait);
+            }
+
+            long recipient = index;
+            send(chatId).whenComplete((response, error) -> {
+                try {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                        listener.onFailure(chatId, error);
+                    } else {
+                        sent.incrementAndGet();
+                        listener.onSuccess(chatId, response.getResult());
+                    }
+                } finally {
+
+                    // Always give back the permit, or the wait for the stragglers never ends
+                    try {
+                        markHandled(recipient);
+                    } catch (UncheckedIOException e) {
+                        checkpointFailure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
+
+        // Wait for the stragglers
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+        if (checkpointFailure.get() != null) {
+            throw checkpointFailure.get();
+        }
+        writeCheckpoint(index);
+        return Math.min(skip, index);
+    }
+
+    /**
+     * Returns the number of messages successfully sent so far.
+     * @return
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of recipients that could not be sent to so far.
+     * @return
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Sends the shared body to a single chat, through the api's send scheduler if it has one.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<TelegramResponse<TelegramTextMessage>> send(long chatId) {
+        StreamingOutput entity = out -> {
+            out.write(CHAT_ID_PREFIX);
+            out.write(Long.toString(chatId).getBytes(StandardCharsets.US_ASCII));
+            out.write(',');
+            out.write(body, 1, body.length - 1);
+        };
+        return (CompletableFuture<TelegramResponse<TelegramTextMessage>>)
+                (CompletableFuture<?>)
+                api.requestChatResourceAsync(chatId, "sendMessage", entity, TelegramMessage.GENERIC_TYPE);
+    }
+
+    /**
+     * Marks a recipient as handled and checkpoints the handled prefix every checkpointInterval recipients.
+     */
+    private void markHandled(long index) {
+        long prefix;
+        synchronized (handled) {
+            handled.set((int) (index - handledPrefix));
+            int advance = handled.nextClearBit(0);
+            if (advance == 0) {
+                return;
+            }
+            handledPrefix += advance;
+            BitSet rest = handled.get(advance, Math.max(advance, handled.length()));
+            handled.clear();
+            handled.or(rest);
+            if (handledPrefix - lastCheckpoint < checkpointInterval) {
+                return;
+            }
+            lastCheckpoint = handledPrefix;
+            prefix = handledPrefix;
+        }
+        writeCheckpoint(prefix);
+    }
+
+    private long readCheckpoint() {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeCheckpoint(long prefix) {
+        checkpointLock.lock();
+        try {
+
+            // Checkpoints may race each other, never move backwards
+            if (checkpoint == null || prefix <= written) {
+                return;
+            }
+            try {
+                Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+                Files.write(tmp, Collections.singleton(Long.toString(prefix)), StandardCharsets.US_ASCII);
+                Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written = prefix;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Receives the outcome of every send. Invoked from the HTTP client threads, so implementations should be
+     * thread-safe and should not block.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when the message was sent to a chat.
+         * @param chatId the chat
+         * @param message the sent message
+         */
+        default void onSuccess(long chatId, TelegramTextMessage message) {
+        }
+
+        /**
+         * Invoked when the message could not be sent to a chat, for example because the bot was blocked.
+         * @param chatId the chat
+         * @param error the cause
+         */
+        default void onFailure(long chatId, Throwable error) {
+        }
+    }
+
+    /**
+     * Builder for a TelegramBroadcast
+     */
+    public static class Builder {
+
+        private final TelegramApi api;
+        private final String text;
+        private TelegramParseMode mode = TelegramParseMode.NORMAL;
+        private boolean disableWebPagePreview = false;
+        private int ratePerSecond = 25;
+        private int maxInFlight = 16;
+        private Path checkpoint;
+        private int checkpointInterval = 1000;
+        private Listener listener = new Listener() { };
+
+        /**
+         * Constructs a new Builder
+         * @param api the api to send through
+         * @param text the text of the message
+         */
+        public Builder(TelegramApi api, String text) {
+            this.api = api;
+            this.text = text;
+        }
+
+        /**
+         * Sets the parse mode of the message
+         * @param mode
+         * @return
+         */
+        public Builder parseMode(TelegramParseMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Disables the web page preview for the first url in the text
+         * @param disableWebPagePreview
+         * @return
+         */
+        public Builder disableWebPagePreview(boolean disableWebPagePreview) {
+            this.disableWebPagePreview = disableWebPagePreview;
+            return this;
+        }
+
+        /**
+         * Sets the number of messages sent per second. Defaults to 25, just under the Telegram limit. With a send
+         * scheduler, set it below the scheduler's global rate to leave room for the bot's other messages.
+         * @param ratePerSecond
+         * @return
+         */
+        public Builder ratePerSecond(int ratePerSecond) {
+            this.ratePerSecond = ratePerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of sends in flight at the same time. Defaults to 16.
+         * @param maxInFlight
+         * @return
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Records progress in the provided file so an interrupted broadcast can be resumed.
+         * @param checkpoint the checkpoint file
+         * @param interval the number of handled recipients between two checkpoints
+         * @return
+         */
+        public Builder checkpoint(Path checkpoint, int interval) {
+            this.checkpoint = checkpoint;
+            this.checkpointInterval = interval;
+            return this;
+        }
+
+        /**
+         * Sets the listener receiving the outcome of every send.
+         * @param listener
+         * @return
+         */
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Builds the TelegramBroadcast
+         * @return
+         */
+        public TelegramBroadcast build() {
+            return new TelegramBroadcast(this);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package nl.lukasmiedema.telegrambotapi;
 
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import nl.lukasmiedema.telegrambotapi.TelegramApi;
+import nl.lukasmiedema.telegrambotapi.dispatch.UpdateDispatcher;
+import nl.lukasmiedema.telegrambotapi.offset.OffsetStore;
+import nl.lukasmiedema.telegrambotapi.offset.UpdateCheckpoint;
+import nl.lukasmiedema.telegrambotapi.offset.UpdateTracker;
 import nl.lukasmiedema.telegrambotapi.telegram.TelegramUser;
 import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.request.JsonRequest;
 import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponse;
 import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramUpdate;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.media.multipart.MultiPart;
 import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 
@@ -14,9 +17,15 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * TelegramPollingApi uses long polling to obtain updates. Note that this method may prove to be inefficient
@@ -31,8 +40,34 @@ public class TelegramPollingApi extends TelegramApi {
      */
     public final static GenericType<TelegramResponse<TelegramUpdate[]>> UPDATE_LIST_TYPE = new GenericType<TelegramResponse<TelegramUpdate[]>>(){};
 
-    // How long should we poll for updates before trying again (in seconds)?
-    private final static int LONG_POLL_TIMEOUT = 120;
+    /**
+     * How long a poll waits for updates by default (in seconds)
+     */
+    public final static int DEFAULT_POLL_TIMEOUT = 120;
+
+    /**
+     * The maximum number of updates the Telegram servers return per poll
+     */
+    public final static int MAX_POLL_LIMIT = 100;
+
+    // How much longer than the long poll timeout should we wait for a response (in seconds)?
+    private final static int READ_TIMEOUT_SLACK = 10;
+
+    // The backoff after the first failed poll, and the cap it doubles towards (in milliseconds)
+    private final static long ERROR_BACKOFF_BASE = 500;
+    private final static long ERROR_BACKOFF_MAX = 60_000;
+
+    private final static Logger LOGGER = Logger.getLogger(TelegramPollingApi.class.getName());
+
+    private final Consumer<TelegramUpdate> callback;
+    private final UpdateDispatcher dispatcher;
+    private final OffsetStore offsetStore;
+    private final UpdateTracker tracker;
+    private final int pollTimeout;
+    private final int pollLimit;
+    private final List<String> allowedUpdates;
+    private volatile boolean running = true;
+    private volatile Thread pollThread;
 
     /**
      * Construct a new TelegramPollingApi
@@ -40,35 +75,156 @@ public class TelegramPollingApi extends TelegramApi {
      * @param callback  the callback
      */
     public TelegramPollingApi(String token, Consumer<TelegramUpdate> callback) {
-        super(token);
+        this(token, new TelegramApiConfig(), callback);
+    }
+
+    /**
+     * Construct a new TelegramPollingApi
+     * @param token     the bot token
+     * @param config    the api settings
+     * @param callback  the callback
+     */
+    public TelegramPollingApi(String token, TelegramApiConfig config, Consumer<TelegramUpdate> callback) {
+        super(token, config);
+        this.callback = callback;
+        this.dispatcher = config.getUpdateDispatcher();
+        this.offsetStore = config.getOffsetStore();
+        this.pollTimeout = config.getPollTimeout();
+        this.pollLimit = config.getPollLimit();
+        this.allowedUpdates = config.getAllowedUpdates();
+
+        // Continue from the last checkpoint, if any
+        try {
+            this.tracker = offsetStore != null ? new UpdateTracker(offsetStore.load()) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
         // Unregister webhooks
-        System.out.println(this.setWebhook(null, null));
+        this.setWebhook(null, null);
+
+        // Create a thread, or poll on the shared executor
+        if (config.getPollExecutor() != null) {
+            config.getPollExecutor().execute(this::poll);
+        } else {
+            Thread updateThread = new Thread(this::poll, "telegram-bot-api poll thread");
+            updateThread.start();
+        }
+    }
+
+    /**
+     * Stops polling for updates. Updates already handed off to the dispatcher are still handled.
+     */
+    public void stop() {
+        running = false;
+        Thread thread = pollThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
 
-        // Create a thread
-        Thread updateThread = new Thread(() -> {
+    /**
+     * Polls for updates until stopped. Failed polls are retried with jittered exponential backoff.
+     */
+    private void poll() {
+        pollThread = Thread.currentThread();
 
-            // The update id
-            long lowestUpdateId = 0;
+        // The update id
+        long lowestUpdateId = tracker != null ? tracker.getOffset() : 0;
+        UpdateCheckpoint saved = tracker != null ? tracker.checkpoint() : null;
+        int errors = 0;
 
-            while (true) {
-                TelegramResponse<TelegramUpdate[]> updates = getUpdates(LONG_POLL_TIMEOUT, lowestUpdateId);
-                System.out.println("Received update: " + updates.isOk());
-                if (updates.isOk() && updates.getResult().length != 0) {
+        try {
+            while (running) {
 
-                    TelegramUpdate[] res = updates.getResult();
+                // Ask for no more updates than the dispatcher has room for
+                int limit = pollLimit;
+                if (dispatcher != null) {
+                    limit = Math.max(1, Math.min(limit, dispatcher.getRemainingCapacity()));
+                }
 
-                    // Handle all updates
-                    Arrays.stream(res).forEach(callback);
+                TelegramUpdate[] res;
+                try {
+                    TelegramResponse<TelegramUpdate[]> updates = getUpdates(pollTimeout, lowestUpdateId, limit,
+                            allowedUpdates);
+                    if (!updates.isOk()) {
+                        throw new TelegramApiException(200, updates);
+                    }
+                    res = updates.getResult();
+                    errors = 0;
+                } catch (RuntimeException e) {
+                    if (!running) {
+                        break;
+                    }
+                    long cap = Math.min(ERROR_BACKOFF_MAX, ERROR_BACKOFF_BASE << Math.min(errors++, 30));
+                    long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+                    if (e instanceof TelegramApiException && ((TelegramApiException) e).getRetryAfter() > 0) {
+                        delay = TimeUnit.SECONDS.toMillis(((TelegramApiException) e).getRetryAfter());
+                    }
+                    LOGGER.log(Level.WARNING, "Polling for updates failed, retrying in " + delay + " ms", e);
+                    Thread.sleep(delay);
+                    continue;
+                }
 
-                    // Set lowestUpdateId
-                    lowestUpdateId = res[res.length - 1].getUpdateId() + 1;
+                if (res.length != 0) {
 
+                    // Handle all updates, or hand them off to the dispatcher
+                    boolean received = false;
+                    for (TelegramUpdate update : res) {
+                        Runnable task = () -> callback.accept(update);
+                        if (tracker != null) {
+                            if (!tracker.begin(update.getUpdateId())) {
+                                continue;
+                            }
+                            task = () -> {
+                                try {
+                                    callback.accept(update);
+                                } finally {
+                                    tracker.complete(update.getUpdateId());
+                                }
+                            };
+                        }
+                        received = true;
+                        if (dispatcher == null) {
+                            try {
+                                task.run();
+                            } catch (RuntimeException e) {
+                                LOGGER.log(Level.WARNING, "Handling update " + update.getUpdateId() + " failed", e);
+                            }
+                        } else if (!dispatcher.submit(getChatId(update), task) && tracker != null) {
+                            tracker.complete(update.getUpdateId());
+                        }
+                    }
+
+                    // Only received updates which were handled before, or are still being handled. Move past
+                    // the former right away, but wait for the latter to complete instead of receiving them again.
+                    if (tracker != null && !received && !tracker.skipHandled(res[res.length - 1].getUpdateId())) {
+                        tracker.awaitOffset(lowestUpdateId, TimeUnit.SECONDS.toMillis(DEFAULT_POLL_TIMEOUT));
+                    }
+
+                    // Without a store, acknowledge the updates with the next poll now that they have been handed off
+                    if (tracker == null) {
+                        lowestUpdateId = res[res.length - 1].getUpdateId() + 1;
+                    }
                 }
-            }
 
-        }, "telegram-bot-api poll thread");
-        updateThread.start();
+                // With a store, only acknowledge updates once handled
+                if (tracker != null) {
+                    UpdateCheckpoint checkpoint = tracker.checkpoint();
+                    if (!checkpoint.equals(saved)) {
+                        try {
+                            offsetStore.save(checkpoint);
+                            saved = checkpoint;
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Saving the update checkpoint failed", e);
+                        }
+                    }
+                    lowestUpdateId = checkpoint.getOffset();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop polling
+        }
     }
 
     /**
@@ -81,15 +237,45 @@ public class TelegramPollingApi extends TelegramApi {
      * @return
      */
     public TelegramResponse<TelegramUpdate[]> getUpdates(int timeout, long lowestUpdateId) {
+        return getUpdates(timeout, lowestUpdateId, MAX_POLL_LIMIT, null);
+    }
+
+    /**
+     * Polls for updates from the server
+     * @param timeout   Timeouts in seconds for long polling. 0 is short polling (the server won't block for updates,
+     *                  but will return updates that were already available).
+     * @param lowestUpdateId offset in the telgram api. The lowest update id we're interested in.
+     *                       When 0, it will not be included in the request.
+     *                       The telegram server will mark all updates with a lower id as read and not send them.
+     * @param limit the maximum number of updates to return, between 1 and {@link #MAX_POLL_LIMIT}
+     * @param allowedUpdates the kinds of updates to receive, or null to keep the previous setting
+     * @return
+     * @throws TelegramApiException when the Telegram servers answered with an error
+     */
+    public TelegramResponse<TelegramUpdate[]> getUpdates(int timeout, long lowestUpdateId, int limit,
+                                                         List<String> allowedUpdates) {
 
         // Create JSON object
-        ObjectNode message = new ObjectNode(JsonNodeFactory.instance);
-        message.put("timeout", timeout);
-        if (lowestUpdateId != 0) {
-            message.put("offset", lowestUpdateId);
-        }
+        JsonRequest message = JsonRequest.of(gen -> {
+            gen.writeNumberField("timeout", timeout);
+            if (lowestUpdateId != 0) {
+                gen.writeNumberField("offset", lowestUpdateId);
+            }
+            if (limit != MAX_POLL_LIMIT) {
+                gen.writeNumberField("limit", limit);
+            }
+            if (allowedUpdates != null) {
+                gen.writeArrayFieldStart("allowed_updates");
+                for (String type : allowedUpdates) {
+                    gen.writeString(type);
+                }
+                gen.writeEndArray();
+            }
+        });
 
-        // Poll for updates
-        return requestResource("getUpdates", message, UPDATE_LIST_TYPE);
+        // Poll for updates, giving the server some slack before timing out the read ourselves
+        return readResponse(request("getUpdates").
+                property(ClientProperties.READ_TIMEOUT, (int) TimeUnit.SECONDS.toMillis(timeout + READ_TIMEOUT_SLACK)).
+                post(Entity.json(message)), UPDATE_LIST_TYPE);
     }
 }
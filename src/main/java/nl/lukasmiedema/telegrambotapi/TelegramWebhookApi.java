@@ -3,7 +3,13 @@ package nl.lukasmiedema.telegrambotapi;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
 import com.sun.net.httpserver.HttpServer;
+import nl.lukasmiedema.telegrambotapi.dispatch.Threads;
+import nl.lukasmiedema.telegrambotapi.dispatch.UpdateDispatcher;
+import nl.lukasmiedema.telegrambotapi.telegram.request.JsonRequest;
 import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramUpdate;
+import nl.lukasmiedema.telegrambotapi.webhook.NioWebhookServer;
+import nl.lukasmiedema.telegrambotapi.webhook.UpdateDeduplicator;
+import nl.lukasmiedema.telegrambotapi.webhook.WebhookReply;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.media.multipart.MultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
@@ -11,15 +17,27 @@ import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import javax.inject.Singleton;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 /**
@@ -31,7 +49,16 @@ import java.util.function.Consumer;
 public class TelegramWebhookApi extends TelegramApi {
 
     private final HttpServer server;
+    private final NioWebhookServer nioServer;
+    private final Executor handlerExecutor;
+    private final ExecutorService ownedExecutor;
     private final Consumer<TelegramUpdate> callback;
+    private final UpdateDispatcher dispatcher;
+    private final UpdateDeduplicator deduplicator;
+
+    // The response to the web hook call this API is handling on this thread. Not shared with other bots,
+    // whose messages would otherwise be sent with this bot's token.
+    private final ThreadLocal<ResponseSlot> response = new ThreadLocal<>();
 
     /**
      * Construct a new TelegramApi with the provided bot token
@@ -41,30 +68,211 @@ public class TelegramWebhookApi extends TelegramApi {
      *                 note that the callback may be invoked multiple times from different threads at the same time.
      */
     public TelegramWebhookApi(String token, URI server, Consumer<TelegramUpdate> callback) {
-        super(token);
+        this(token, new TelegramApiConfig(), server, callback);
+    }
+
+    /**
+     * Construct a new TelegramApi with the provided bot token and settings
+     * @param token    the bot token
+     * @param apiConfig the api settings
+     * @param server   the uri to bind to for callbacks
+     * @param callback the callback to invoke when a request to the webhook has been made
+     *                 note that the callback may be invoked multiple times from different threads at the same time.
+     */
+    public TelegramWebhookApi(String token, TelegramApiConfig apiConfig, URI server,
+                              Consumer<TelegramUpdate> callback) {
+        this(token, apiConfig, server, callback, null);
+    }
+
+    /**
+     * Construct a new TelegramApi handling web hook calls on an executor it owns, which is shut down on
+     * {@link #stop()}. It takes the place of the configured web hook executor.
+     * @param token    the bot token
+     * @param apiConfig the api settings
+     * @param server   the uri to bind to for callbacks
+     * @param callback the callback to invoke when a request to the webhook has been made
+     * @param executor the executor, or null to use the configured one
+     */
+    TelegramWebhookApi(String token, TelegramApiConfig apiConfig, URI server, Consumer<TelegramUpdate> callback,
+                       ExecutorService executor) {
+        super(token, apiConfig);
 
         this.callback = callback;
+        this.dispatcher = apiConfig.getUpdateDispatcher();
+        this.deduplicator = apiConfig.getWebhookDedupWindow() > 0 ?
+                new UpdateDeduplicator(apiConfig.getWebhookDedupWindow()) : null;
 
         // Start the server for web hooks
+        SSLContext tls = apiConfig.getWebhookTls();
+        Executor webhookExecutor = executor != null ? executor : apiConfig.getWebhookExecutor();
         System.out.println("Expecting callback on " + server);
-        ResourceConfig config = new ResourceConfig();
-        config.register(this);
+        if (apiConfig.isNioWebhook()) {
+            this.server = null;
+            if (dispatcher != null) {
+                this.handlerExecutor = null;
+                this.ownedExecutor = executor;
+            } else if (webhookExecutor != null) {
+                this.handlerExecutor = webhookExecutor;
+                this.ownedExecutor = executor;
+            } else {
+                this.ownedExecutor = Threads.newThreadPerTaskExecutor("telegram-bot-api webhook handler");
+                this.handlerExecutor = ownedExecutor;
+            }
+            try {
+                this.nioServer = new NioWebhookServer(new InetSocketAddress(server.getHost(),
+                        server.getPort() < 0 ? (tls == null ? 80 : 443) : server.getPort()), server.getPath(),
+                        apiConfig.getWebhookMaxBodySize(), this::onNioCallback, tls);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            ResourceConfig config = new ResourceConfig();
+            config.register(this);
+
+            // Only start once the executor has been set
+            this.server = tls == null ? JdkHttpServerFactory.createHttpServer(server, config, false) :
+                    JdkHttpServerFactory.createHttpServer(server, config, tls, false);
+            this.server.setExecutor(webhookExecutor);
+            this.server.start();
+            this.nioServer = null;
+            this.handlerExecutor = null;
+            this.ownedExecutor = executor;
+        }
+    }
 
-        this.server = JdkHttpServerFactory.createHttpServer(server, config);
+    /**
+     * Stops the web hook server and the threads it created. Updates already handed off to the dispatcher are
+     * still handled.
+     */
+    public void stop() {
+        if (nioServer != null) {
+            nioServer.close();
+        } else {
+            server.stop(0);
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
     }
 
     /**
-     * Handles calls to the webhook API.
+     * Handles calls to the webhook API. With an {@link UpdateDispatcher}, the update is only validated and queued
+     * here, so Telegram gets its answer without waiting for the handlers. Otherwise the handlers run first, so
+     * their reply can go into the response (see {@link #sendTextInResponse(long, String)}).
      * @param update
+     * @return
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public void onCallback(TelegramUpdate update) {
+    public Response onCallback(TelegramUpdate update) {
+        if (update == null || update.getUpdateId() <= 0) {
+            throw new BadRequestException();
+        }
+
+        // Telegram retries slow and failed calls, so only acknowledge repeats
+        if (deduplicator != null && !deduplicator.firstSeen(update.getUpdateId())) {
+            return Response.noContent().build();
+        }
+
+        // Hand off to the dispatcher and acknowledge right away, or have Telegram retry if it has no room
+        if (dispatcher != null) {
+            boolean queued;
+            try {
+                queued = dispatcher.submit(getChatId(update), () -> this.callback.accept(update));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                forget(update);
+                throw new ServiceUnavailableException();
+            }
+            return Response.noContent().build();
+        }
+
+        WebhookReply reply = handle(update);
+        return reply == null ? Response.noContent().build() :
+                Response.ok(reply.getBody(), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Returns the deduplicator recognizing repeated deliveries, which also counts skipped and late updates.
+     * @return the deduplicator, or null if disabled
+     */
+    public UpdateDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    @Override
+    protected boolean replyInResponse(String method, JsonRequest request) {
+        ResponseSlot slot = response.get();
+        if (slot == null || slot.reply != null) {
+            return false;
+        }
+        slot.reply = WebhookReply.of(method, request);
+        return true;
+    }
+
+    /**
+     * Handles updates received by the {@link NioWebhookServer}. The handlers never run on the server thread:
+     * the update goes to the dispatcher if there is one, and to a handler thread otherwise. The server thread
+     * never waits for room in the dispatcher either; when there is none, Telegram is told to try again later.
+     */
+    private CompletionStage<?> onNioCallback(TelegramUpdate update) {
+        if (update.getUpdateId() <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (deduplicator != null && !deduplicator.firstSeen(update.getUpdateId())) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Hand off to the dispatcher and acknowledge right away
+        if (dispatcher != null) {
+            CompletableFuture<Void> queued = new CompletableFuture<>();
+            if (dispatcher.offer(getChatId(update), () -> this.callback.accept(update))) {
+                queued.complete(null);
+            } else {
+                forget(update);
+                queued.completeExceptionally(new RejectedExecutionException("The dispatcher is full"));
+            }
+            return queued;
+        }
+
+        // Acknowledge once handled
+        return CompletableFuture.supplyAsync(() -> handle(update), handlerExecutor);
+    }
+
+    /**
+     * Lets an update which was not accepted through when Telegram delivers it again
+     */
+    private void forget(TelegramUpdate update) {
+        if (deduplicator != null) {
+            deduplicator.forget(update.getUpdateId());
+        }
+    }
+
+    /**
+     * Invokes the callback on this thread, collecting the method call it wants in the response
+     * @return the method call, or null
+     */
+    private WebhookReply handle(TelegramUpdate update) {
+        ResponseSlot slot = new ResponseSlot();
+        response.set(slot);
         try {
             // Invoke the callback
             this.callback.accept(update);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            response.remove();
         }
+        return slot.reply;
+    }
+
+    /**
+     * Holds the method call to send in the response to a web hook call
+     */
+    private static class ResponseSlot {
+        private WebhookReply reply;
     }
 }
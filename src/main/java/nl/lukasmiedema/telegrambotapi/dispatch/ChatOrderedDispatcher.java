@@ -0,0 +1,325 @@
+package nl.lukasmiedema.telegrambotapi.dispatch;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link UpdateDispatcher} which handles the updates of each chat strictly in order, while handling updates of
+ * different chats in parallel. Chats are hashed onto a fixed number of lanes. Each lane is a lock-free queue with
+ * a single consumer at a time, so the updates in a lane are handled one after another in the order they were
+ * submitted, and lanes are handled at the same time on the threads of the executor.
+ * <p>
+ * A chat with many updates only holds up the chats sharing its lane. Use a few times more lanes than threads to
+ * keep that number small. Each lane holds at most its capacity of updates; what happens when a lane is full
+ * depends on the {@link OverflowPolicy}.
+ * @author Lukas Miedema
+ */
+public class ChatOrderedDispatcher extends UpdateDispatcher {
+
+    // How many updates a lane handles before giving other lanes a turn
+    private static final int BATCH_SIZE = 16;
+
+    private final Lane[] lanes;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final AtomicLong shed = new AtomicLong();
+
+    /**
+     * Constructs and starts a new ChatOrderedDispatcher with a thread per lane
+     * @param lanes the number of lanes and threads
+     * @param capacity the maximum number of updates waiting in a lane
+     */
+    public ChatOrderedDispatcher(int lanes, int capacity) {
+        this(lanes, capacity, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Constructs and starts a new ChatOrderedDispatcher with a thread per lane
+     * @param lanes the number of lanes and threads
+     * @param capacity the maximum number of updates waiting in a lane
+     * @param overflowPolicy what to do with an update when its lane is full
+     */
+    public ChatOrderedDispatcher(int lanes, int capacity, OverflowPolicy overflowPolicy) {
+        this(Executors.newFixedThreadPool(lanes, Threads.named("telegram-bot-api dispatcher", false)), lanes,
+                capacity, overflowPolicy, true);
+    }
+
+    /**
+     * Constructs a new ChatOrderedDispatcher running on a shared executor
+     * @param executor the executor, which should not run tasks on the submitting thread
+     * @param lanes the number of lanes
+     * @param capacity the maximum number of updates waiting in a lane
+     * @param overflowPolicy what to do with an update when its lane is full
+     */
+    public ChatOrderedDispatcher(Executor executor, int lanes, int capacity, OverflowPolicy overflowPolicy) {
+        this(executor, lanes, capacity, overflowPolicy, false);
+    }
+
+    private ChatOrderedDispatcher(Executor executor, int lanes, int capacity, OverflowPolicy overflowPolicy,
+                                  boolean own) {
+        if (lanes <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("lanes and capacity should be positive");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+        this.ownExecutor = own ? (ExecutorService) executor : null;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Queues the handling of an update which does not belong to a chat. These share the lane of chat 0.
+     * @param task handles the update
+     * @return false if the update was dropped
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    @Override
+    public boolean submit(Runnable task) throws InterruptedException {
+        return submit(0, task);
+    }
+
+    /**
+     * Queues the handling of an update in the lane of its chat. When the lane is full, the {@link OverflowPolicy}
+     * decides whether to wait for room, drop the update or queue it anyway.
+     * @param chatId the id of the chat the update belongs to, or 0 if none
+     * @param task handles the update
+     * @return false if the update was dropped
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    @Override
+    public boolean submit(long chatId, Runnable task) throws InterruptedException {
+        if (overflowPolicy != OverflowPolicy.BLOCK) {
+            return offer(chatId, task);
+        }
+        Lane lane = lanes[getLane(chatId)];
+        lane.room.acquire();
+        lane.submit(new Task(task, lane));
+        return true;
+    }
+
+    /**
+     * Queues the handling of an update which does not belong to a chat without ever waiting.
+     * @param task handles the update
+     * @return false if the update was dropped or refused
+     */
+    @Override
+    public boolean offer(Runnable task) {
+        return offer(0, task);
+    }
+
+    /**
+     * Queues the handling of an update in the lane of its chat without ever waiting. When the lane is full, the
+     * update is dropped or queued anyway according to the {@link OverflowPolicy}, and refused when the policy is
+     * to wait.
+     * @param chatId the id of the chat the update belongs to, or 0 if none
+     * @param task handles the update
+     * @return false if the update was dropped or refused
+     */
+    @Override
+    public boolean offer(long chatId, Runnable task) {
+        Lane lane = lanes[getLane(chatId)];
+        if (lane.room.tryAcquire()) {
+            lane.submit(new Task(task, lane));
+            return true;
+        }
+        switch (overflowPolicy) {
+            case SPILL:
+                lane.submit(new Task(task, null));
+                return true;
+            case SHED:
+                shed.incrementAndGet();
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the lane handling the updates of a chat.
+     * @param chatId the id of the chat
+     * @return the index of the lane
+     */
+    public int getLane(long chatId) {
+
+        // Spread consecutive ids over the lanes
+        long hash = chatId * 0x9E3779B97F4A7C15L;
+        return (int) ((hash ^ (hash >>> 32)) & 0x7FFFFFFF) % lanes.length;
+    }
+
+    /**
+     * Returns the number of lanes.
+     * @return
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Returns the number of updates in a lane, waiting or being handled.
+     * @param lane the index of the lane
+     * @return
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].pending.get();
+    }
+
+    /**
+     * Returns the number of updates in each lane, waiting or being handled.
+     * @return
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].pending.get();
+        }
+        return depths;
+    }
+
+    /**
+     * Returns the number of updates in all lanes, waiting or being handled.
+     * @return
+     */
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.pending.get();
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of updates that can be submitted without waiting, whichever chats they belong to:
+     * the room left in the fullest lane.
+     * @return
+     */
+    @Override
+    public int getRemainingCapacity() {
+        int remaining = capacity;
+        for (Lane lane : lanes) {
+            remaining = Math.min(remaining, lane.room.availablePermits());
+        }
+        return remaining;
+    }
+
+    @Override
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Stops dispatching. Updates still in the lanes are not handled. A shared executor is not shut down.
+     */
+    @Override
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.queue.clear();
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * The queue of a lane, handled by at most one thread at a time
+     */
+    private class Lane {
+
+        private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Semaphore room = new Semaphore(capacity);
+
+        /**
+         * Queues a task, and starts handling the lane if it was idle
+         */
+        private void submit(Task task) {
+            queue.add(task);
+            if (pending.getAndIncrement() == 0) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shut down
+            }
+        }
+
+        /**
+         * Handles a batch of updates, then makes room for other lanes on the executor.
+         */
+        private void drain() {
+            Thread self = Thread.currentThread();
+            for (int i = 0; ; i++) {
+                Task task = queue.poll();
+                if (task == null) {
+                    return;
+                }
+                boolean handled = false;
+                int left;
+                try {
+
+                    // A failing handler should not take the lane down with it
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        self.getUncaughtExceptionHandler().uncaughtException(self, e);
+                    }
+                    handled = true;
+                } finally {
+
+                    // An error ends this run, so let another run take over the rest of the lane
+                    left = pending.decrementAndGet();
+                    if (!handled && left != 0) {
+                        schedule();
+                    }
+                }
+                if (left == 0) {
+                    return;
+                }
+                if (i == BATCH_SIZE - 1) {
+                    schedule();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A queued update, holding room in its lane unless it was spilled
+     */
+    private static class Task {
+
+        private final Runnable task;
+        private final Lane lane;
+
+        private Task(Runnable task, Lane lane) {
+            this.task = task;
+            this.lane = lane;
+        }
+
+        private void run() {
+            try {
+                task.run();
+            } finally {
+                if (lane != null) {
+                    lane.room.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package nl.lukasmiedema.telegrambotapi.dispatch;
+
+/**
+ * What an {@link UpdateDispatcher} does with an update when its queue is full.
+ * @author Lukas Miedema
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Wait until there is room in the queue. The receiver slows down to the pace of the handlers.
+     */
+    BLOCK,
+
+    /**
+     * Drop the update. The receiver never waits, at the cost of losing updates under load.
+     */
+    SHED,
+
+    /**
+     * Move the update to an unbounded overflow queue, which is handled once the regular queue has been worked
+     * through. The receiver never waits and no updates are lost, at the cost of memory under sustained load.
+     */
+    SPILL
+}
@@ -0,0 +1,175 @@
+package nl.lukasmiedema.telegrambotapi.dispatch;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link UpdateDispatcher} which handles every update on a thread of its own: a virtual thread where the JVM
+ * supports them (Java 21 and up), otherwise a platform thread. Meant for handlers which mostly wait on I/O, such
+ * as sending messages or querying a database, which would otherwise need a very large thread pool.
+ * <p>
+ * The number of updates handled at the same time can be capped. Without virtual threads the cap is also the
+ * number of platform threads, so it should be set then. What happens when the cap is reached depends on the
+ * {@link OverflowPolicy}. Updates are handled concurrently and may complete out of order.
+ * @author Lukas Miedema
+ */
+public class ThreadPerUpdateDispatcher extends UpdateDispatcher {
+
+    private final ExecutorService executor;
+    private final Semaphore inFlightPermits;
+    private final OverflowPolicy overflowPolicy;
+    private final Queue<Runnable> spill = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong shed = new AtomicLong();
+
+    /**
+     * Constructs a new ThreadPerUpdateDispatcher without a cap on the number of updates handled at the same time
+     */
+    public ThreadPerUpdateDispatcher() {
+        this(0, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Constructs a new ThreadPerUpdateDispatcher
+     * @param maxInFlight the maximum number of updates handled at the same time, or 0 for no maximum
+     * @param overflowPolicy what to do with an update when the maximum is reached
+     */
+    public ThreadPerUpdateDispatcher(int maxInFlight, OverflowPolicy overflowPolicy) {
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException("maxInFlight should not be negative");
+        }
+        this.executor = maxInFlight > 0 ? Threads.newBoundedExecutor("telegram-bot-api handler", maxInFlight) :
+                Threads.newThreadPerTaskExecutor("telegram-bot-api handler");
+        this.inFlightPermits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts handling an update on a new thread. When the maximum number of updates is being handled, the
+     * {@link OverflowPolicy} decides whether to wait for one to complete, drop the update or queue it.
+     * @param task handles the update
+     * @return false if the update was dropped
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    @Override
+    public boolean submit(Runnable task) throws InterruptedException {
+        if (inFlightPermits == null || overflowPolicy != OverflowPolicy.BLOCK) {
+            return offer(task);
+        }
+        inFlightPermits.acquire();
+        start(task);
+        return true;
+    }
+
+    /**
+     * Starts handling an update on a new thread without ever waiting. When the maximum number of updates is being
+     * handled, the update is dropped or queued according to the {@link OverflowPolicy}, and refused when the
+     * policy is to wait.
+     * @param task handles the update
+     * @return false if the update was dropped or refused
+     */
+    @Override
+    public boolean offer(Runnable task) {
+        if (inFlightPermits == null) {
+            start(task);
+            return true;
+        }
+        switch (overflowPolicy) {
+            case SHED:
+                if (!inFlightPermits.tryAcquire()) {
+                    shed.incrementAndGet();
+                    return false;
+                }
+                break;
+            case SPILL:
+
+                // Once spilling, keep spilling so updates start in order
+                if (!spill.isEmpty() || !inFlightPermits.tryAcquire()) {
+                    spill.add(task);
+
+                    // Everything may have completed in the meantime
+                    if (inFlightPermits.tryAcquire()) {
+                        startNext();
+                    }
+                    return true;
+                }
+                break;
+            default:
+                if (!inFlightPermits.tryAcquire()) {
+                    return false;
+                }
+        }
+        start(task);
+        return true;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return inFlight.get() + spill.size();
+    }
+
+    @Override
+    public int getRemainingCapacity() {
+        if (inFlightPermits == null) {
+            return Integer.MAX_VALUE;
+        }
+        return spill.isEmpty() ? inFlightPermits.availablePermits() : 0;
+    }
+
+    @Override
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Stops dispatching. Queued updates are not handled, and the threads handling updates are interrupted.
+     */
+    @Override
+    public void shutdown() {
+        spill.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a task on a new thread, holding a permit if there is a maximum
+     */
+    private void start(Runnable task) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                Thread self = Thread.currentThread();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+
+                    // A failing handler should not take the dispatcher down with it
+                    self.getUncaughtExceptionHandler().uncaughtException(self, e);
+                } finally {
+                    inFlight.decrementAndGet();
+                    if (inFlightPermits != null) {
+                        startNext();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a permit to the next spilled update, or returns it if there is none
+     */
+    private void startNext() {
+        Runnable next = spill.poll();
+        if (next != null) {
+            start(next);
+        } else {
+            inFlightPermits.release();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package nl.lukasmiedema.telegrambotapi.dispatch;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of this library. Virtual threads are used where available (Java 21 and up) without
+ * requiring a newer Java version to build or run the library.
+ * @author Lukas Miedema
+ */
+public final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * Returns a thread factory naming its threads after the provided prefix, followed by a counter.
+     * @param prefix the name prefix
+     * @param daemon whether the threads are daemon threads
+     * @return
+     */
+    public static ThreadFactory named(String prefix, boolean daemon) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + " " + counter.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns whether this JVM supports virtual threads.
+     * @return
+     */
+    public static boolean hasVirtualThreads() {
+        return virtualFactory("probe") != null;
+    }
+
+    /**
+     * Returns an executor starting a new thread for every task: a virtual thread if supported, otherwise a
+     * platform thread from a cached pool. Suitable for tasks that spend most of their time blocked.
+     * @param prefix the name prefix of the threads
+     * @return
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        ThreadFactory factory = virtualFactory(prefix);
+        if (factory != null) {
+            try {
+                Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) newExecutor.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                // Fall back to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(named(prefix, true));
+    }
+
+    /**
+     * Returns an executor for handling at most a known number of tasks at the same time, such as requests on a
+     * limited number of connections: a virtual thread per task if supported, otherwise a fixed pool of platform
+     * threads of that size.
+     * @param prefix the name prefix of the threads
+     * @param concurrency the number of tasks that may run at the same time
+     * @return
+     */
+    public static ExecutorService newBoundedExecutor(String prefix, int concurrency) {
+        if (hasVirtualThreads()) {
+            return newThreadPerTaskExecutor(prefix);
+        }
+        return Executors.newFixedThreadPool(concurrency, named(prefix, true));
+    }
+
+    /**
+     * Creates a factory of named virtual threads, or returns null if virtual threads are not supported.
+     */
+    private static ThreadFactory virtualFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder$OfVirtual").
+                    getMethod("name", String.class, long.class).invoke(builder, prefix + " ", 0L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package nl.lukasmiedema.telegrambotapi.dispatch;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs update handlers on a pool of dispatcher threads, fed through a bounded queue. This decouples receiving
+ * updates from handling them: the receiving thread hands an update off and moves on, while a slow handler only
+ * holds up its own dispatcher thread. What happens when the queue is full depends on the {@link OverflowPolicy}.
+ * By default {@link #submit(Runnable)} blocks until there is room again, so a receiver can never outrun the
+ * handlers by more than the capacity of the queue.
+ * <p>
+ * A dispatcher either owns its threads, or runs on an executor shared with other dispatchers. On a shared
+ * executor each dispatcher keeps its own queue and never occupies more than its concurrency in threads, and
+ * gives up its thread after a few updates so the dispatchers take turns.
+ * <p>
+ * With a concurrency of 1, updates are handled one after another in the order they were submitted. With more,
+ * updates are handled concurrently and may complete out of order.
+ * @author Lukas Miedema
+ */
+public class UpdateDispatcher {
+
+    // How many updates a dispatcher handles before giving other dispatchers a turn
+    private static final int BATCH_SIZE = 16;
+
+    private final BlockingQueue<Runnable> queue;
+    private final Queue<Runnable> spill = new ConcurrentLinkedQueue<>();
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong shed = new AtomicLong();
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final int concurrency;
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Constructs and starts a new UpdateDispatcher with its own threads
+     * @param threads the number of dispatcher threads
+     * @param capacity the maximum number of updates waiting to be handled
+     */
+    public UpdateDispatcher(int threads, int capacity) {
+        this(threads, capacity, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Constructs and starts a new UpdateDispatcher with its own threads
+     * @param threads the number of dispatcher threads
+     * @param capacity the maximum number of updates waiting to be handled
+     * @param overflowPolicy what to do with an update when the queue is full
+     */
+    public UpdateDispatcher(int threads, int capacity, OverflowPolicy overflowPolicy) {
+        this(Executors.newFixedThreadPool(threads, Threads.named("telegram-bot-api dispatcher", false)),
+                threads, capacity, overflowPolicy, true);
+    }
+
+    /**
+     * Constructs a new UpdateDispatcher running on a shared executor
+     * @param executor the executor, which should not run tasks on the submitting thread
+     * @param concurrency the maximum number of updates handled at the same time
+     * @param capacity the maximum number of updates waiting to be handled
+     */
+    public UpdateDispatcher(Executor executor, int concurrency, int capacity) {
+        this(executor, concurrency, capacity, OverflowPolicy.BLOCK, false);
+    }
+
+    /**
+     * Constructs a new UpdateDispatcher running on a shared executor
+     * @param executor the executor, which should not run tasks on the submitting thread
+     * @param concurrency the maximum number of updates handled at the same time
+     * @param capacity the maximum number of updates waiting to be handled
+     * @param overflowPolicy what to do with an update when the queue is full
+     */
+    public UpdateDispatcher(Executor executor, int concurrency, int capacity, OverflowPolicy overflowPolicy) {
+        this(executor, concurrency, capacity, overflowPolicy, false);
+    }
+
+    /**
+     * Constructs an UpdateDispatcher for subclasses which queue and run the updates themselves, and override
+     * all public methods.
+     */
+    protected UpdateDispatcher() {
+        this.queue = null;
+        this.executor = null;
+        this.ownExecutor = null;
+        this.concurrency = 0;
+        this.overflowPolicy = null;
+    }
+
+    private UpdateDispatcher(Executor executor, int concurrency, int capacity, OverflowPolicy overflowPolicy,
+                             boolean own) {
+        if (concurrency <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("concurrency and capacity should be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.executor = executor;
+        this.ownExecutor = own ? (ExecutorService) executor : null;
+        this.concurrency = concurrency;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queues the handling of an update. When the queue is full, the {@link OverflowPolicy} decides whether to
+     * wait for room, drop the update or spill it.
+     * @param task handles the update
+     * @return false if the update was dropped
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public boolean submit(Runnable task) throws InterruptedException {
+        if (overflowPolicy != OverflowPolicy.BLOCK) {
+            return offer(task);
+        }
+        queue.put(task);
+        schedule();
+        return true;
+    }
+
+    /**
+     * Queues the handling of an update without ever waiting. When the queue is full, the update is dropped or
+     * spilled according to the {@link OverflowPolicy}, and refused when the policy is to wait.
+     * @param task handles the update
+     * @return false if the update was dropped or refused
+     */
+    public boolean offer(Runnable task) {
+        switch (overflowPolicy) {
+            case SHED:
+                if (!queue.offer(task)) {
+                    shed.incrementAndGet();
+                    return false;
+                }
+                break;
+            case SPILL:
+
+                // Once spilling, keep spilling so updates stay in order
+                if (!spill.isEmpty() || !queue.offer(task)) {
+                    spill.add(task);
+                }
+                break;
+            default:
+                if (!queue.offer(task)) {
+                    return false;
+                }
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Queues the handling of an update from a chat. This dispatcher does not use the chat, see
+     * {@link ChatOrderedDispatcher} for one that does.
+     * @param chatId the id of the chat the update belongs to, or 0 if none
+     * @param task handles the update
+     * @return false if the update was dropped
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public boolean submit(long chatId, Runnable task) throws InterruptedException {
+        return submit(task);
+    }
+
+    /**
+     * Queues the handling of an update from a chat without ever waiting, see {@link #offer(Runnable)}.
+     * @param chatId the id of the chat the update belongs to, or 0 if none
+     * @param task handles the update
+     * @return false if the update was dropped or refused
+     */
+    public boolean offer(long chatId, Runnable task) {
+        return offer(task);
+    }
+
+    /**
+     * Returns the number of updates waiting to be handled.
+     * @return
+     */
+    public int getQueueDepth() {
+        return queue.size() + spill.size();
+    }
+
+    /**
+     * Returns the number of updates that can be submitted without waiting.
+     * @return
+     */
+    public int getRemainingCapacity() {
+        return spill.isEmpty() ? queue.remainingCapacity() : 0;
+    }
+
+    /**
+     * Returns the number of updates dropped because the queue was full.
+     * @return
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Stops dispatching. Updates still in the queue are not handled. A shared executor is not shut down.
+     */
+    public void shutdown() {
+        queue.clear();
+        spill.clear();
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts another drain of the queue if there is work and the concurrency allows it.
+     */
+    private void schedule() {
+        for (int a = active.get(); a < concurrency && (!queue.isEmpty() || !spill.isEmpty()); a = active.get()) {
+            if (active.compareAndSet(a, a + 1)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    active.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles a batch of queued updates, then makes room for other work on the executor.
+     */
+    private void drain() {
+        Thread self = Thread.currentThread();
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    task = spill.poll();
+                }
+                if (task == null) {
+                    break;
+                }
+
+                // A failing handler should not take the dispatcher down with it
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    self.getUncaughtExceptionHandler().uncaughtException(self, e);
+                }
+            }
+        } finally {
+            active.decrementAndGet();
+            schedule();
+        }
+    }
+}
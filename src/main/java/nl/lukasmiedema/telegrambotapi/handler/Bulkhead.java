@@ -0,0 +1,191 @@
+package nl.lukasmiedema.telegrambotapi.handler;
+
+import nl.lukasmiedema.telegrambotapi.TelegramApi;
+import nl.lukasmiedema.telegrambotapi.dispatch.Threads;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMessage;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Isolates slow handlers from the rest of the handler chain. Handlers wrapped by a Bulkhead run on its own threads,
+ * at most a fixed number at the same time, and the chain waits for them until a deadline. When a handler overruns
+ * its deadline the following handlers are invoked anyway and the timeout is counted; the handler itself keeps its
+ * slot in the bulkhead until it completes. When all slots are taken, the handler is skipped.
+ * <p>
+ * A wrapped handler sees a copy of the event. Whether it cancelled the event is only taken over if it completed
+ * before the deadline. With a deadline of 0 the chain doesn't wait at all, which suits handlers that never cancel
+ * the event, such as analytics. Share a Bulkhead between handlers, for example those of one {@link MessageType},
+ * to bound them together. Failures of handlers the chain doesn't wait for, or stopped waiting for after their
+ * deadline, go to the uncaught exception handler.
+ * @author Lukas Miedema
+ */
+public class Bulkhead {
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final int maxConcurrent;
+    private final long deadline;
+    private final boolean interrupt;
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Constructs a new Bulkhead, leaving handlers that overrun their deadline running
+     * @param name the name prefix of its threads
+     * @param maxConcurrent the maximum number of handlers running at the same time
+     * @param deadlineMillis how long the chain waits for a handler in milliseconds, or 0 to not wait at all
+     */
+    public Bulkhead(String name, int maxConcurrent, long deadlineMillis) {
+        this(name, maxConcurrent, deadlineMillis, false);
+    }
+
+    /**
+     * Constructs a new Bulkhead
+     * @param name the name prefix of its threads
+     * @param maxConcurrent the maximum number of handlers running at the same time
+     * @param deadlineMillis how long the chain waits for a handler in milliseconds, or 0 to not wait at all
+     * @param interruptOnTimeout whether to interrupt handlers that overrun their deadline
+     */
+    public Bulkhead(String name, int maxConcurrent, long deadlineMillis, boolean interruptOnTimeout) {
+        if (maxConcurrent <= 0 || deadlineMillis < 0) {
+            throw new IllegalArgumentException("maxConcurrent should be positive and deadlineMillis not negative");
+        }
+        this.executor = Threads.newBoundedExecutor(name, maxConcurrent);
+        this.slots = new Semaphore(maxConcurrent);
+        this.maxConcurrent = maxConcurrent;
+        this.deadline = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.interrupt = interruptOnTimeout;
+    }
+
+    /**
+     * Wraps a handler so it runs in this bulkhead.
+     * @param handler the handler
+     * @return the handler to register
+     */
+    public <M extends TelegramMessage> MessageHandler<M> wrap(MessageHandler<M> handler) {
+        return (event, api) -> handle(handler, event, api);
+    }
+
+    private <M extends TelegramMessage> void handle(MessageHandler<M> handler, MessageEvent<M> event,
+                                                    TelegramApi api) {
+        if (!slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            return;
+        }
+
+        // Run the handler on a copy of the event, as it may outlive the chain
+        MessageEvent<M> copy = new MessageEvent<>(event.getMessage(), event.isCancelled());
+        FutureTask<Void> future = new FutureTask<>(() -> handler.handle(copy, api), null);
+
+        // Set by the first of the handler completing and the chain no longer waiting for it. The second one
+        // reports the failure, so it is reported once even when the handler completes right at the deadline.
+        AtomicBoolean settled = new AtomicBoolean(deadline == 0);
+        try {
+
+            // Release the slot even when the handler was cancelled before it started
+            executor.execute(() -> {
+                try {
+                    future.run();
+                    if (settled.getAndSet(true)) {
+                        report(future);
+                    }
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            rejected.incrementAndGet();
+            return;
+        }
+        if (deadline == 0) {
+            return;
+        }
+
+        try {
+            future.get(deadline, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            if (interrupt) {
+                future.cancel(true);
+            }
+            if (settled.getAndSet(true)) {
+                report(future);
+            }
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (settled.getAndSet(true)) {
+                report(future);
+            }
+            return;
+        } catch (ExecutionException e) {
+
+            // Fail like a handler invoked directly would
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        event.setCancelled(copy.isCancelled());
+    }
+
+    /**
+     * Passes the failure of a handler the chain doesn't wait for to the uncaught exception handler of the
+     * current thread. Only invoked once the handler completed.
+     */
+    private static void report(FutureTask<Void> future) {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Thread self = Thread.currentThread();
+            self.getUncaughtExceptionHandler().uncaughtException(self, e.getCause());
+        } catch (InterruptedException | CancellationException e) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Returns the number of handlers that overran their deadline.
+     * @return
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the number of handlers skipped because all slots were taken.
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of handlers running, including those that overran their deadline.
+     * @return
+     */
+    public int getActiveCount() {
+        return maxConcurrent - slots.availablePermits();
+    }
+
+    /**
+     * Stops the threads of the bulkhead. Running handlers are interrupted, and handlers invoked afterwards are
+     * skipped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
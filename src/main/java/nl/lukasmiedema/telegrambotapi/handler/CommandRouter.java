@@ -0,0 +1,193 @@
+package nl.lukasmiedema.telegrambotapi.handler;
+
+import nl.lukasmiedema.telegrambotapi.TelegramApi;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramCommandMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Routes commands to their handlers with a single lookup, as a replacement for registering a {@link CommandFilter}
+ * per command (which compares the command against every filter in turn). Command names are case insensitive.
+ * <p>
+ * Like a {@link CommandFilter}, the router cancels the event before invoking the handler of a command. Commands
+ * addressed to another bot (<code>/command@OtherBot</code>) are ignored when the name of the bot is known.
+ * Commands without a handler go to the fallback handler, which can leave the event uncancelled so handlers
+ * registered after the router still see it, and then to the unknown command handler.
+ * Register the router under {@link MessageType#COMMAND}.
+ * @author Lukas Miedema
+ */
+public class CommandRouter implements MessageHandler<TelegramCommandMessage> {
+
+    private final Map<String, MessageHandler<TelegramCommandMessage>> routes;
+    private final String botName;
+    private final MessageHandler<TelegramCommandMessage> fallback;
+    private final MessageHandler<TelegramCommandMessage> unknown;
+
+    private CommandRouter(Builder builder) {
+        this.routes = new HashMap<>(builder.routes);
+        this.botName = builder.botName;
+        this.fallback = builder.fallback;
+        this.unknown = builder.unknown;
+    }
+
+    /**
+     * Handle the message.
+     * @param event   the message event
+     * @param api     the TelegramApi which can be used to send a response
+     */
+    @Override
+    public void handle(MessageEvent<TelegramCommandMessage> event, TelegramApi api) {
+        TelegramCommandMessage cmd = event.getMessage();
+        String command = cmd.getCommand().toLowerCase(Locale.ROOT);
+        String target = cmd.getTarget();
+
+        // A route for this command at this target, or for the command in general
+        MessageHandler<TelegramCommandMessage> handler = null;
+        if (target != null) {
+            handler = routes.get(command + '@' + target.toLowerCase(Locale.ROOT));
+            if (handler == null && botName != null && !botName.equalsIgnoreCase(target)) {
+                return;
+            }
+        }
+        if (handler == null) {
+            handler = routes.get(command);
+        }
+
+        if (handler != null) {
+
+            // Cancel the event so it doesn't invoke other command handlers
+            // Do this before the delegation so the delegate could override it
+            event.setCancelled(true);
+            handler.handle(event, api);
+            return;
+        }
+
+        // No route
+        if (fallback != null) {
+            fallback.handle(event, api);
+        }
+        if (unknown != null && !event.isCancelled()) {
+            event.setCancelled(true);
+            unknown.handle(event, api);
+        }
+    }
+
+    /**
+     * Returns a new Builder
+     * @return
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for a CommandRouter
+     */
+    public static class Builder {
+
+        private final Map<String, MessageHandler<TelegramCommandMessage>> routes = new HashMap<>();
+        private final List<ValidatingCommandFilter> documented = new ArrayList<>();
+        private String botName;
+        private MessageHandler<TelegramCommandMessage> fallback;
+        private MessageHandler<TelegramCommandMessage> unknown;
+        private String helpDesc;
+        private String helpPrefix;
+
+        private Builder() {
+        }
+
+        /**
+         * Routes a command to a handler.
+         * @param command the command, i.e. "start" for /start. Use "start@MyBot" to only route commands explicitly
+         *                addressed to a bot.
+         * @param handler the handler
+         * @return
+         * @throws IllegalArgumentException if the command already has a handler
+         */
+        public Builder command(String command, MessageHandler<TelegramCommandMessage> handler) {
+            String key = command.toLowerCase(Locale.ROOT);
+            if ((helpPrefix != null && key.equals("help")) || routes.putIfAbsent(key, handler) != null) {
+                throw new IllegalArgumentException("Command /" + command + " already has a handler");
+            }
+            return this;
+        }
+
+        /**
+         * Routes the command of a {@link ValidatingCommandFilter} to it. The command is listed by {@link #help}.
+         * @param filter the filter
+         * @return
+         */
+        public Builder command(ValidatingCommandFilter filter) {
+            command(filter.getCommand(), filter);
+            documented.add(filter);
+            return this;
+        }
+
+        /**
+         * Routes /help to a {@link HelpHandler} listing the commands routed with
+         * {@link #command(ValidatingCommandFilter)}, including those added later.
+         * @param helpDesc the description of the /help command in the list
+         * @param prefix a message to display before the list of commands
+         * @return
+         * @throws IllegalArgumentException if /help already has a handler
+         */
+        public Builder help(String helpDesc, String prefix) {
+            if (routes.containsKey("help")) {
+                throw new IllegalArgumentException("Command /help already has a handler");
+            }
+            this.helpDesc = helpDesc;
+            this.helpPrefix = prefix;
+            return this;
+        }
+
+        /**
+         * Sets the user name of the bot, so commands addressed to other bots are ignored.
+         * @param botName the user name, without @
+         * @return
+         */
+        public Builder botName(String botName) {
+            this.botName = botName;
+            return this;
+        }
+
+        /**
+         * Sets the handler for commands without a route. The event is not cancelled, so if the handler does not
+         * cancel it, the unknown command handler is invoked, or without one the handlers registered after the
+         * router.
+         * @param fallback the handler
+         * @return
+         */
+        public Builder fallback(MessageHandler<TelegramCommandMessage> fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        /**
+         * Sets the handler for commands without a route that were not handled by the fallback handler, for
+         * example to tell the user the command does not exist. The event is cancelled.
+         * @param unknown the handler
+         * @return
+         */
+        public Builder unknownCommand(MessageHandler<TelegramCommandMessage> unknown) {
+            this.unknown = unknown;
+            return this;
+        }
+
+        /**
+         * Builds the CommandRouter
+         * @return
+         */
+        public CommandRouter build() {
+            CommandRouter router = new CommandRouter(this);
+            if (helpPrefix != null) {
+                router.routes.put("help", new HelpHandler(helpDesc, helpPrefix,
+                        documented.toArray(new ValidatingCommandFilter[documented.size()])));
+            }
+            return router;
+        }
+    }
+}
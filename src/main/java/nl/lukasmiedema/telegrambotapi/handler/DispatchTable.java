@@ -0,0 +1,116 @@
+package nl.lukasmiedema.telegrambotapi.handler;
+
+import nl.lukasmiedema.telegrambotapi.telegram.media.TelegramMedia;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMediaMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The message handlers of a bot, indexed by the class of the message and of its media. The handlers for a class
+ * are resolved the first time a message of that class arrives, in the order they were registered, and kept in an
+ * array. After that, finding the handlers of a message is a single lookup, however many message types are
+ * registered.
+ * @author Lukas Miedema
+ */
+public class DispatchTable {
+
+    private static final MessageHandler<?>[] NONE = new MessageHandler<?>[0];
+
+    private final MessageType<?>[] types;
+    private final MessageHandler<?>[][] handlers;
+    private final ClassValue<Entry> entries = new ClassValue<Entry>() {
+        @Override
+        protected Entry computeValue(Class<?> messageType) {
+            return TelegramMediaMessage.class.isAssignableFrom(messageType) ?
+                    new MediaEntry(messageType) : new Entry(resolve(messageType, null));
+        }
+    };
+
+    /**
+     * Compiles a new DispatchTable. Later changes to the registrations are not seen by the table.
+     * @param registrations the handlers per message type, in the order they should be invoked
+     */
+    @SuppressWarnings("rawtypes") // The registrations use the raw types of TelegramBot's public constructors
+    public DispatchTable(Map<MessageType, List<MessageHandler>> registrations) {
+        this.types = new MessageType<?>[registrations.size()];
+        this.handlers = new MessageHandler<?>[registrations.size()][];
+        int i = 0;
+        for (Map.Entry<MessageType, List<MessageHandler>> e: registrations.entrySet()) {
+            types[i] = e.getKey();
+            handlers[i++] = e.getValue().toArray(NONE);
+        }
+    }
+
+    /**
+     * Returns the handlers of a message, in the order in which they should be invoked. The array is shared and
+     * should not be modified.
+     * @param message the message, or null
+     * @return
+     */
+    public MessageHandler<?>[] getHandlers(TelegramMessage message) {
+        if (message == null) {
+            return NONE;
+        }
+        return entries.get(message.getClass()).getHandlers(message);
+    }
+
+    /**
+     * Collects the handlers of all message types matching the classes
+     */
+    private MessageHandler<?>[] resolve(Class<?> messageType, Class<?> mediaType) {
+        List<MessageHandler<?>> matching = new ArrayList<>();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].typeOf(messageType, mediaType)) {
+                for (MessageHandler<?> h: handlers[i]) {
+                    matching.add(h);
+                }
+            }
+        }
+        return matching.isEmpty() ? NONE : matching.toArray(NONE);
+    }
+
+    /**
+     * The handlers of a message class
+     */
+    private static class Entry {
+
+        private final MessageHandler<?>[] handlers;
+
+        private Entry(MessageHandler<?>[] handlers) {
+            this.handlers = handlers;
+        }
+
+        MessageHandler<?>[] getHandlers(TelegramMessage message) {
+            return handlers;
+        }
+    }
+
+    /**
+     * The handlers of a media message class, which also depend on the class of the media
+     */
+    private class MediaEntry extends Entry {
+
+        private final MessageHandler<?>[] withoutMedia;
+        private final ClassValue<MessageHandler<?>[]> byMedia;
+
+        private MediaEntry(Class<?> messageType) {
+            super(null);
+            this.withoutMedia = resolve(messageType, null);
+            this.byMedia = new ClassValue<MessageHandler<?>[]>() {
+                @Override
+                protected MessageHandler<?>[] computeValue(Class<?> mediaType) {
+                    return resolve(messageType, mediaType);
+                }
+            };
+        }
+
+        @Override
+        MessageHandler<?>[] getHandlers(TelegramMessage message) {
+            TelegramMedia media = ((TelegramMediaMessage<?>) message).getMedia();
+            return media == null ? withoutMedia : byMedia.get(media.getClass());
+        }
+    }
+}
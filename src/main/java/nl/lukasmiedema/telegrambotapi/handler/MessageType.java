@@ -22,6 +22,17 @@ public class MessageType<M extends TelegramMessage> {
         return this.type.isInstance(message);
     }
 
+    /**
+     * Returns true if messages of the provided class, carrying media of the provided class, are of the type
+     * represented by this message type. Used to resolve handlers once per class instead of once per message.
+     * @param messageType the class of the message
+     * @param mediaType the class of the media, or null if the message has no media
+     * @return
+     */
+    public boolean typeOf(Class<?> messageType, Class<?> mediaType) {
+        return this.type.isAssignableFrom(messageType);
+    }
+
 
     public static final MessageType<TelegramMessage> ANY =
             new MessageType<>(TelegramMessage.class);
@@ -103,6 +114,12 @@ public class MessageType<M extends TelegramMessage> {
         public boolean typeOf(TelegramMessage message) {
             return super.typeOf(message) && mediaType.isInstance(((TelegramMediaMessage) message).getMedia());
         }
+
+        @Override
+        public boolean typeOf(Class<?> messageType, Class<?> mediaType) {
+            return super.typeOf(messageType, mediaType) && mediaType != null &&
+                    this.mediaType.isAssignableFrom(mediaType);
+        }
     }
 
     /**
@@ -123,5 +140,10 @@ public class MessageType<M extends TelegramMessage> {
         public boolean typeOf(TelegramMessage message) {
             return super.typeOf(message) && fileType.isInstance(((TelegramMediaMessage) message).getMedia());
         }
+
+        @Override
+        public boolean typeOf(Class<?> messageType, Class<?> mediaType) {
+            return super.typeOf(messageType, mediaType) && fileType.isAssignableFrom(mediaType);
+        }
     }
 }
@@ -0,0 +1,148 @@
+package nl.lukasmiedema.telegrambotapi.offset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the update checkpoint in a small local file, forced to disk on every save.
+ * <p>
+ * The file holds two fixed-size slots which are written alternately, each with a sequence number and a checksum.
+ * A save interrupted by a crash can only damage the slot being written, in which case the previous checkpoint
+ * in the other slot is loaded instead.
+ * @author Lukas Miedema
+ */
+public class FileOffsetStore implements OffsetStore {
+
+    /**
+     * The default maximum number of handled ids stored above the offset
+     */
+    public static final int DEFAULT_WINDOW = 1024;
+
+    // Sequence number, offset and count, followed by the ids and a checksum
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+
+    private final FileChannel channel;
+    private final int window;
+    private final ByteBuffer buffer;
+
+    // Held while forcing the file to disk, which should not pin a virtual thread as a monitor would
+    private final ReentrantLock lock = new ReentrantLock();
+    private long sequence;
+
+    /**
+     * Opens (or creates) a FileOffsetStore storing up to {@link #DEFAULT_WINDOW} handled ids
+     * @param file the file to store the checkpoint in
+     * @throws IOException if the file could not be opened
+     */
+    public FileOffsetStore(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Opens (or creates) a FileOffsetStore
+     * @param file the file to store the checkpoint in
+     * @param window the maximum number of handled ids stored above the offset. When more ids have been handled
+     *               out of order, the lowest ones are not stored and will be handled again after a crash.
+     * @throws IOException if the file could not be opened
+     */
+    public FileOffsetStore(Path file, int window) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.window = window;
+        this.buffer = ByteBuffer.allocate(HEADER_SIZE + window * 8 + 8);
+    }
+
+    @Override
+    public UpdateCheckpoint load() throws IOException {
+        lock.lock();
+        try {
+            UpdateCheckpoint result = UpdateCheckpoint.EMPTY;
+            long best = -1;
+            for (int slot = 0; slot < 2; slot++) {
+                buffer.clear();
+                long position = (long) slot * buffer.capacity();
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                    // Keep reading until the slot is complete or the file ends
+                }
+
+                // Skip missing or damaged slots
+                int length = buffer.position();
+                if (length < HEADER_SIZE + 8) {
+                    continue;
+                }
+                long seq = buffer.getLong(0);
+                int count = buffer.getInt(16);
+                if (count < 0 || count > window || seq <= best) {
+                    continue;
+                }
+                int end = HEADER_SIZE + count * 8;
+                if (end + 8 > length || buffer.getLong(end) != checksum(end)) {
+                    continue;
+                }
+
+                long[] handled = new long[count];
+                for (int i = 0; i < count; i++) {
+                    handled[i] = buffer.getLong(HEADER_SIZE + i * 8);
+                }
+                best = seq;
+                result = new UpdateCheckpoint(buffer.getLong(8), handled);
+            }
+            sequence = Math.max(best, 0);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void save(UpdateCheckpoint checkpoint) throws IOException {
+        lock.lock();
+        try {
+            long[] handled = checkpoint.getHandled();
+            int from = Math.max(0, handled.length - window);
+
+            // Fill the slot
+            long seq = ++sequence;
+            buffer.clear();
+            buffer.putLong(seq).putLong(checkpoint.getOffset()).putInt(handled.length - from);
+            for (int i = from; i < handled.length; i++) {
+                buffer.putLong(handled[i]);
+            }
+            buffer.putLong(checksum(buffer.position()));
+
+            // Overwrite the older slot and force it to disk
+            buffer.flip();
+            long position = (seq & 1) * buffer.capacity();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Computes the checksum over the first bytes of the buffer
+     */
+    private long checksum(int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,33 @@
+package nl.lukasmiedema.telegrambotapi.offset;
+
+import java.io.IOException;
+
+/**
+ * Durably stores how far a bot got in processing its updates, so a restarted bot continues where it left off.
+ * Implement this interface to keep the checkpoint somewhere else than in a local file, such as a database.
+ * @author Lukas Miedema
+ * @see FileOffsetStore
+ */
+public interface OffsetStore {
+
+    /**
+     * Loads the last saved checkpoint.
+     * @return the checkpoint, or {@link UpdateCheckpoint#EMPTY} if none was saved yet
+     * @throws IOException if the checkpoint could not be read
+     */
+    UpdateCheckpoint load() throws IOException;
+
+    /**
+     * Saves a checkpoint. When this method returns, the checkpoint should survive a crash.
+     * @param checkpoint the checkpoint
+     * @throws IOException if the checkpoint could not be saved
+     */
+    void save(UpdateCheckpoint checkpoint) throws IOException;
+
+    /**
+     * Releases the resources held by this store.
+     * @throws IOException if the store could not be closed
+     */
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,64 @@
+package nl.lukasmiedema.telegrambotapi.offset;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of update processing: the lowest update id which has not been handled yet, and the ids above it
+ * which have already been handled (because updates completed out of order). After a crash, polling restarts
+ * at the offset and the handled ids are skipped.
+ * @author Lukas Miedema
+ */
+public final class UpdateCheckpoint {
+
+    /**
+     * The checkpoint of a bot that has not handled any update yet
+     */
+    public static final UpdateCheckpoint EMPTY = new UpdateCheckpoint(0, new long[0]);
+
+    private final long offset;
+    private final long[] handled;
+
+    /**
+     * Constructs a new UpdateCheckpoint
+     * @param offset the lowest update id not handled yet, or 0 if unknown
+     * @param handled the ids above the offset that have been handled, in ascending order
+     */
+    public UpdateCheckpoint(long offset, long[] handled) {
+        this.offset = offset;
+        this.handled = handled;
+    }
+
+    /**
+     * Returns the lowest update id not handled yet, or 0 if unknown.
+     * @return
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the ids above the offset that have been handled, in ascending order.
+     * @return
+     */
+    public long[] getHandled() {
+        return handled.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UpdateCheckpoint that = (UpdateCheckpoint) o;
+        return offset == that.offset && Arrays.equals(handled, that.handled);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(offset) + Arrays.hashCode(handled);
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateCheckpoint{offset=" + offset + ", handled=" + Arrays.toString(handled) + "}";
+    }
+}
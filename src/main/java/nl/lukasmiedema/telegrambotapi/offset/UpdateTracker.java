@@ -0,0 +1,153 @@
+package nl.lukasmiedema.telegrambotapi.offset;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of which updates are being handled and which have been handled, to determine the offset up to
+ * which all updates have been handled. Updates may complete in any order: an update that completes before an
+ * older one is remembered as handled until the offset moves past it, and is recognized as a duplicate if it is
+ * received again in the meantime.
+ * <p>
+ * Guarded by a lock instead of a monitor, so a virtual thread waiting for the offset does not pin its carrier.
+ * @author Lukas Miedema
+ */
+public class UpdateTracker {
+
+    private final TreeSet<Long> pending = new TreeSet<>();
+    private final TreeSet<Long> handled = new TreeSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition offsetMoved = lock.newCondition();
+    private long offset;
+    private long next;
+
+    /**
+     * Constructs a new UpdateTracker continuing from a checkpoint
+     * @param checkpoint the checkpoint, as loaded from an {@link OffsetStore}
+     */
+    public UpdateTracker(UpdateCheckpoint checkpoint) {
+        this.offset = checkpoint.getOffset();
+        this.next = checkpoint.getOffset();
+        for (long id : checkpoint.getHandled()) {
+            handled.add(id);
+            next = Math.max(next, id + 1);
+        }
+    }
+
+    /**
+     * Marks an update as being handled.
+     * @param updateId the update id
+     * @return false if the update is a duplicate: it is already being handled or was handled before
+     */
+    public boolean begin(long updateId) {
+        lock.lock();
+        try {
+            if ((offset != 0 && updateId < offset) || handled.contains(updateId) || !pending.add(updateId)) {
+                return false;
+            }
+            next = Math.max(next, updateId + 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks an update as handled, moving the offset forward if it was the oldest pending update.
+     * @param updateId the update id, as passed to {@link #begin(long)}
+     */
+    public void complete(long updateId) {
+        lock.lock();
+        try {
+            if (!pending.remove(updateId)) {
+                return;
+            }
+            handled.add(updateId);
+
+            // Move the offset to the oldest pending update, or past the newest one if none are pending
+            long newOffset = pending.isEmpty() ? next : pending.first();
+            if (newOffset != offset) {
+                offset = newOffset;
+                handled.headSet(offset).clear();
+                offsetMoved.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the offset past updates which were received again after they had been handled, such as those handled
+     * before a restart but after the saved offset. Only possible when no update is being handled.
+     * @param newestId the newest update id received
+     * @return false if updates are still being handled, so the offset only moves once they complete
+     */
+    public boolean skipHandled(long newestId) {
+        lock.lock();
+        try {
+            if (!pending.isEmpty()) {
+                return false;
+            }
+            next = Math.max(next, newestId + 1);
+            if (next != offset) {
+                offset = next;
+                handled.headSet(offset).clear();
+                offsetMoved.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lowest update id which has not been handled, or 0 if unknown.
+     * @return
+     */
+    public long getOffset() {
+        lock.lock();
+        try {
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the offset moves past the provided offset.
+     * @param from the offset to move past
+     * @param timeout the maximum time to wait in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitOffset(long from, long timeout) throws InterruptedException {
+        lock.lock();
+        try {
+            long left = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (offset <= from && left > 0) {
+                left = offsetMoved.awaitNanos(left);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the progress, to be saved in an {@link OffsetStore}.
+     * @return
+     */
+    public UpdateCheckpoint checkpoint() {
+        lock.lock();
+        try {
+            long[] ids = new long[handled.size()];
+            int i = 0;
+            for (long id : handled) {
+                ids[i++] = id;
+            }
+            return new UpdateCheckpoint(offset, ids);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package nl.lukasmiedema.telegrambotapi.ratelimit;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Paces outbound messages so a bot stays within the Telegram rate limits: a global limit over all chats, plus
+ * a limit per chat. Messages to the same chat are sent strictly one after another in submission order, and the
+ * next one is only started once the previous one has completed. Messages to different chats are only held back
+ * by the global limit.
+ * <p>
+ * Chats with a negative id (groups and channels) use the group limit, all other chats the private chat limit.
+ * Tokens are paced evenly instead of being handed out in bursts, so no window of the limit is ever exceeded.
+ * @author Lukas Miedema
+ */
+public class SendScheduler {
+
+    /**
+     * Maximum number of messages per second over all chats
+     */
+    public static final int DEFAULT_GLOBAL_PER_SECOND = 30;
+
+    /**
+     * Maximum number of messages per second to a single private chat
+     */
+    public static final int DEFAULT_PRIVATE_PER_SECOND = 1;
+
+    /**
+     * Maximum number of messages per minute to a single group chat
+     */
+    public static final int DEFAULT_GROUP_PER_MINUTE = 20;
+
+    private static final CompletableFuture<Void> IDLE = CompletableFuture.completedFuture(null);
+
+    private final TokenBucket global;
+    private final int privatePerSecond;
+    private final int groupPerMinute;
+    private final ConcurrentMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Constructs a new SendScheduler with the default Telegram limits.
+     */
+    public SendScheduler() {
+        this(DEFAULT_GLOBAL_PER_SECOND, DEFAULT_PRIVATE_PER_SECOND, DEFAULT_GROUP_PER_MINUTE);
+    }
+
+    /**
+     * Constructs a new SendScheduler.
+     * @param globalPerSecond the maximum number of messages per second over all chats
+     * @param privatePerSecond the maximum number of messages per second to a single private chat
+     * @param groupPerMinute the maximum number of messages per minute to a single group or channel
+     */
+    public SendScheduler(int globalPerSecond, int privatePerSecond, int groupPerMinute) {
+        this.global = new TokenBucket(globalPerSecond, 1, TimeUnit.SECONDS, 1);
+        this.privatePerSecond = privatePerSecond;
+        this.groupPerMinute = groupPerMinute;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "telegram-bot-api send scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a send to the provided chat. The send is started once all previously submitted sends to the same
+     * chat have completed and both the chat and the global limit allow it.
+     * @param chatId the chat the send is addressed to
+     * @param send starts the actual request. It is invoked on the scheduler thread, so it should not block.
+     * @return a future which completes with the result of the send
+     */
+    public <T> CompletableFuture<T> submit(long chatId, Supplier<? extends CompletableFuture<T>> send) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        lanes.compute(chatId, (id, lane) -> {
+            if (lane == null) {
+                lane = new Lane(id < 0 ?
+                        new TokenBucket(groupPerMinute, 1, TimeUnit.MINUTES, 1) :
+                        new TokenBucket(privatePerSecond, 1, TimeUnit.SECONDS, 1));
+            }
+
+            // Wait for the previous message in this chat, regardless of its outcome
+            TokenBucket bucket = lane.bucket;
+            lane.tail.whenComplete((r, e) -> {
+                long slot = bucket.reserve(System.nanoTime());
+                schedule(() -> startGlobal(send, result), slot);
+            });
+            lane.tail = result;
+            return lane;
+        });
+
+        // Clean up the lane once it's idle
+        result.whenComplete((r, e) -> release(chatId, result));
+        return result;
+    }
+
+    /**
+     * Returns the number of chats which currently have messages queued or recently had messages sent to them.
+     * @return
+     */
+    public int getActiveChats() {
+        return lanes.size();
+    }
+
+    /**
+     * Stops the scheduler thread. Sends that have not yet been started will never complete.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Takes a global token once the chat allows the send, and starts the send when the token is due. Reserving
+     * the global token only now keeps a chat waiting for its own limit from holding back other chats.
+     */
+    private <T> void startGlobal(Supplier<? extends CompletableFuture<T>> send, CompletableFuture<T> result) {
+        long slot = global.reserve(System.nanoTime());
+        schedule(() -> start(send, result), slot);
+    }
+
+    /**
+     * Runs a task on the scheduler thread at the provided moment.
+     */
+    private void schedule(Runnable task, long at) {
+        try {
+            timer.schedule(task, at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Starts a send and forwards its outcome to the result future.
+     */
+    private static <T> void start(Supplier<? extends CompletableFuture<T>> send, CompletableFuture<T> result) {
+        try {
+            send.get().whenComplete((r, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ?
+                            e.getCause() : e);
+                } else {
+                    result.complete(r);
+                }
+            });
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Removes the lane of a chat once it has no more queued messages and its bucket is full again.
+     * Until then the lane has to be kept, otherwise the chat limit would be forgotten.
+     */
+    private void release(long chatId, CompletableFuture<?> last) {
+        lanes.computeIfPresent(chatId, (id, lane) -> {
+            if (lane.tail != last) {
+                return lane;
+            }
+            long delay = lane.bucket.getFullTime() - System.nanoTime();
+            if (delay <= 0) {
+                return null;
+            }
+            if (!timer.isShutdown()) {
+                timer.schedule(() -> release(chatId, last), delay, TimeUnit.NANOSECONDS);
+            }
+            return lane;
+        });
+    }
+
+    /**
+     * The queue of a single chat
+     */
+    private static class Lane {
+        private final TokenBucket bucket;
+        private CompletableFuture<?> tail = IDLE;
+
+        private Lane(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package nl.lukasmiedema.telegrambotapi.ratelimit;
+
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramParseMode;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramTextMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Merges text messages sent to the same chat in quick succession into a single message. The first text to a chat
+ * opens a window; every text arriving within that window is appended on a new line. When the window closes, when
+ * the next text would make the message longer than {@link #MAX_LENGTH}, or when the next text has another parse
+ * mode or preview setting, the merged message is sent and every caller receives the resulting message. A chat has
+ * at most one open batch, so its texts are never sent out of order.
+ * <p>
+ * Merged messages to the same chat are sent in order, but only a {@link SendScheduler} guarantees they also
+ * arrive in order.
+ * @author Lukas Miedema
+ */
+public class TextCoalescer {
+
+    /**
+     * The maximum length of a Telegram text message
+     */
+    public static final int MAX_LENGTH = 4096;
+
+    private final long window;
+    private final ConcurrentMap<Long, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final Executor completer;
+
+    /**
+     * Constructs a new TextCoalescer
+     * @param window how long to wait for more texts after the first one
+     * @param unit the unit of window
+     */
+    public TextCoalescer(long window, TimeUnit unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window should be positive");
+        }
+        this.window = unit.toNanos(window);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "telegram-bot-api text coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Complete waiters on the coalescer thread, or elsewhere once it has been stopped
+        this.completer = task -> {
+            try {
+                timer.execute(task);
+            } catch (RejectedExecutionException e) {
+                ForkJoinPool.commonPool().execute(task);
+            }
+        };
+    }
+
+    /**
+     * Adds a text to the batch of its chat.
+     * @param chatId the chat the text is addressed to
+     * @param text the text
+     * @param mode the parse mode. Only consecutive texts with the same parse mode are merged.
+     * @param disableWebPagePreview the preview setting. Only consecutive texts with the same setting are merged.
+     * @param send sends a merged text. Invoked on the coalescer thread or the calling thread, so it should not block.
+     * @return a future completing with the merged message this text ended up in. It completes on the coalescer
+     *         thread, so dependent stages may submit more texts.
+     */
+    public CompletableFuture<TelegramResponse<TelegramTextMessage>> submit(
+            long chatId, String text, TelegramParseMode mode, boolean disableWebPagePreview,
+            Function<String, CompletableFuture<TelegramResponse<TelegramTextMessage>>> send) {
+
+        CompletableFuture<TelegramResponse<TelegramTextMessage>> result = new CompletableFuture<>();
+        batches.compute(chatId, (k, batch) -> {
+
+            // Send the current batch if this text doesn't fit anymore or has to be sent differently. Batches are
+            // sent while holding the chat's entry, so a later batch can never be sent before it.
+            if (batch != null && (batch.text.length() + 1 + text.length() > MAX_LENGTH || batch.mode != mode ||
+                    batch.disableWebPagePreview != disableWebPagePreview)) {
+                batch.send();
+                batch = null;
+            }
+
+            // Open a new window
+            if (batch == null) {
+                Batch created = new Batch(send, completer, mode, disableWebPagePreview);
+                timer.schedule(() -> batches.computeIfPresent(k, (id, open) -> {
+                    if (open != created) {
+                        return open;
+                    }
+                    created.send();
+                    return null;
+                }), window, TimeUnit.NANOSECONDS);
+                batch = created;
+            } else {
+                batch.text.append('\n');
+            }
+            batch.text.append(text);
+            batch.waiters.add(result);
+            return batch;
+        });
+        return result;
+    }
+
+    /**
+     * Stops the coalescer thread. Texts waiting for their window to close will never be sent.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * The texts waiting to be merged into one message
+     */
+    private static class Batch {
+        private final Function<String, CompletableFuture<TelegramResponse<TelegramTextMessage>>> sender;
+        private final Executor completer;
+        private final TelegramParseMode mode;
+        private final boolean disableWebPagePreview;
+        private final StringBuilder text = new StringBuilder();
+        private final List<CompletableFuture<TelegramResponse<TelegramTextMessage>>> waiters = new ArrayList<>();
+
+        private Batch(Function<String, CompletableFuture<TelegramResponse<TelegramTextMessage>>> sender,
+                      Executor completer, TelegramParseMode mode, boolean disableWebPagePreview) {
+            this.sender = sender;
+            this.completer = completer;
+            this.mode = mode;
+            this.disableWebPagePreview = disableWebPagePreview;
+        }
+
+        /**
+         * Sends the merged text and completes all waiters with the outcome. Only invoked when the batch is
+         * removed from the map, so no more texts are added. This happens while holding the chat's entry, so the
+         * waiters are completed by the completer: a stage depending on them may submit to the same chat.
+         */
+        private void send() {
+            CompletableFuture<TelegramResponse<TelegramTextMessage>> sent;
+            try {
+                sent = sender.apply(text.toString());
+            } catch (Throwable t) {
+                sent = new CompletableFuture<>();
+                sent.completeExceptionally(t);
+            }
+            sent.whenCompleteAsync((r, e) -> {
+                for (CompletableFuture<TelegramResponse<TelegramTextMessage>> waiter : waiters) {
+                    if (e != null) {
+                        waiter.completeExceptionally(e instanceof CompletionException && e.getCause() != null ?
+                                e.getCause() : e);
+                    } else {
+                        waiter.complete(r);
+                    }
+                }
+            }, completer);
+        }
+    }
+}
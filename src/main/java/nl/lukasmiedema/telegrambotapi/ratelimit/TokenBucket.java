@@ -0,0 +1,56 @@
+package nl.lukasmiedema.telegrambotapi.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which hands out reservations instead of blocking. Each call to {@link #reserve(long)} takes one
+ * token and returns the moment (in {@link System#nanoTime()} terms) at which the caller is allowed to use it.
+ * The bucket is implemented as a generic cell rate algorithm, so it only needs a single timestamp of state.
+ * @author Lukas Miedema
+ */
+public class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+
+    // The moment at which the bucket will be completely full again
+    private long full;
+
+    /**
+     * Constructs a new TokenBucket. The bucket starts out full.
+     * @param permits the number of tokens that become available per period
+     * @param period the length of the period
+     * @param unit the unit of period
+     * @param capacity the maximum number of tokens that can be used in a burst. Use 1 for evenly paced tokens.
+     */
+    public TokenBucket(int permits, long period, TimeUnit unit, int capacity) {
+        if (permits < 1 || capacity < 1) {
+            throw new IllegalArgumentException("permits and capacity should be at least 1");
+        }
+        this.interval = unit.toNanos(period) / permits;
+        this.tolerance = this.interval * (capacity - 1);
+        this.full = System.nanoTime();
+    }
+
+    /**
+     * Takes a token from the bucket.
+     * @param notBefore the earliest moment the token is needed, usually {@link System#nanoTime()}
+     * @return the moment at which the token may be used, never before notBefore
+     */
+    public synchronized long reserve(long notBefore) {
+        long slot = notBefore;
+        if (full - tolerance - slot > 0) {
+            slot = full - tolerance;
+        }
+        full = (full - slot > 0 ? full : slot) + interval;
+        return slot;
+    }
+
+    /**
+     * Returns the moment at which the bucket will be full again if no more tokens are taken.
+     * @return
+     */
+    public synchronized long getFullTime() {
+        return full;
+    }
+}
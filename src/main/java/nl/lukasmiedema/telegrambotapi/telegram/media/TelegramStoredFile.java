@@ -0,0 +1,44 @@
+package nl.lukasmiedema.telegrambotapi.telegram.media;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponse;
+
+import javax.ws.rs.core.GenericType;
+
+/**
+ * Represents a file stored on the Telegram servers, ready to be downloaded. Returned by
+ * {@link nl.lukasmiedema.telegrambotapi.TelegramApi#getFile(String)}.
+ * @author Lukas Miedema
+ */
+public class TelegramStoredFile extends TelegramFile {
+
+    /**
+     * Generic type for deserialization with Jackson
+     */
+    public final static GenericType<TelegramResponse<TelegramStoredFile>> GENERIC_TYPE = new GenericType<TelegramResponse<TelegramStoredFile>>(){};
+
+    private final String filePath;
+
+    /**
+     * Construct a new TelegramStoredFile.
+     * @param fileId the telegram file id
+     * @param fileSize in bytes
+     * @param filePath the path to download the file from. A local Bot API server returns an absolute path
+     *                 on its own file system instead.
+     */
+    @JsonCreator
+    public TelegramStoredFile(@JsonProperty("file_id") String fileId, @JsonProperty("file_size") int fileSize,
+                              @JsonProperty("file_path") String filePath) {
+        super(fileId, fileSize);
+        this.filePath = filePath;
+    }
+
+    /**
+     * Returns the path of the file, or null if it can't be downloaded.
+     * @return
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+}
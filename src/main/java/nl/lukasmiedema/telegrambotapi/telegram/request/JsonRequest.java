@@ -0,0 +1,72 @@
+package nl.lukasmiedema.telegrambotapi.telegram.request;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A JSON request body which is written field by field with a {@link JsonGenerator} straight into the HTTP entity
+ * stream, without building a JSON tree first. The generator takes its output buffer from Jackson's per-thread
+ * buffer recycler, so writing a request allocates next to nothing.
+ * The fields are written every time the body is written, so a JsonRequest can be sent more than once.
+ * @author Lukas Miedema
+ */
+public class JsonRequest implements StreamingOutput {
+
+    private static final JsonFactory JSON = new JsonFactory().
+            disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final Fields fields;
+
+    private JsonRequest(Fields fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a new JsonRequest. The surrounding object is written by the JsonRequest itself.
+     * @param fields writes the fields of the request
+     * @return
+     */
+    public static JsonRequest of(Fields fields) {
+        return new JsonRequest(fields);
+    }
+
+    /**
+     * Returns this request as a method call, which names the method in a <code>method</code> field.
+     * This is the form in which a method can be called in the response to a web hook call.
+     * @param method the method, such as <code>sendMessage</code>
+     * @return
+     */
+    public JsonRequest asMethodCall(String method) {
+        return new JsonRequest(gen -> {
+            gen.writeStringField("method", method);
+            fields.write(gen);
+        });
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (JsonGenerator gen = JSON.createGenerator(output)) {
+            gen.writeStartObject();
+            fields.write(gen);
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes the fields of a request
+     */
+    @FunctionalInterface
+    public interface Fields {
+
+        /**
+         * Writes the fields of the request.
+         * @param gen the generator, positioned inside the request object
+         * @throws IOException
+         */
+        void write(JsonGenerator gen) throws IOException;
+    }
+}
@@ -14,12 +14,30 @@ public class TelegramResponse<R> {
 
     private final boolean ok;
     private final R result;
+    private final int errorCode;
+    private final String description;
+    private final TelegramResponseParameters parameters;
+
+    /**
+     * Construct a new TelegramResponse without error information
+     * @param ok
+     * @param result
+     */
+    public TelegramResponse(boolean ok, R result) {
+        this(ok, result, 0, null, null);
+    }
 
     @JsonCreator
     public TelegramResponse(@JsonProperty("ok") boolean ok,
-                            @JsonProperty(value = "result", required = false) R result) {
+                            @JsonProperty(value = "result", required = false) R result,
+                            @JsonProperty("error_code") int errorCode,
+                            @JsonProperty("description") String description,
+                            @JsonProperty("parameters") TelegramResponseParameters parameters) {
         this.ok = ok;
         this.result = result;
+        this.errorCode = errorCode;
+        this.description = description;
+        this.parameters = parameters;
     }
 
     /**
@@ -38,11 +56,38 @@ public class TelegramResponse<R> {
         return result;
     }
 
+    /**
+     * The error code if the request was unsuccessful, 0 otherwise.
+     * @return
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * A human-readable description of the result, if any
+     * @return
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Additional information on why the request was unsuccessful, or null
+     * @return
+     */
+    public TelegramResponseParameters getParameters() {
+        return parameters;
+    }
+
     @Override
     public String toString() {
         return "TelegramResponse{" +
                 "ok=" + ok +
                 ", result=" + result +
+                ", errorCode=" + errorCode +
+                ", description='" + description + '\'' +
+                ", parameters=" + parameters +
                 '}';
     }
 }
@@ -0,0 +1,51 @@
+package nl.lukasmiedema.telegrambotapi.telegram.response;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Additional information on why a request was unsuccessful.
+ * @author Lukas Miedema
+ */
+public class TelegramResponseParameters {
+
+    private final long migrateToChatId;
+    private final int retryAfter;
+
+    /**
+     * Construct new TelegramResponseParameters
+     * @param migrateToChatId the id the group has been migrated to, or 0
+     * @param retryAfter the number of seconds to wait before repeating the request, or 0
+     */
+    @JsonCreator
+    public TelegramResponseParameters(@JsonProperty("migrate_to_chat_id") long migrateToChatId,
+                                      @JsonProperty("retry_after") int retryAfter) {
+        this.migrateToChatId = migrateToChatId;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the id of the supergroup the group has been migrated to, or 0 if it wasn't migrated.
+     * @return
+     */
+    public long getMigrateToChatId() {
+        return migrateToChatId;
+    }
+
+    /**
+     * Returns the number of seconds to wait before the request can be repeated when the flood control was
+     * exceeded, or 0.
+     * @return
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "TelegramResponseParameters{" +
+                "migrateToChatId=" + migrateToChatId +
+                ", retryAfter=" + retryAfter +
+                '}';
+    }
+}
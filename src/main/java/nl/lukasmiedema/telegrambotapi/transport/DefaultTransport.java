@@ -0,0 +1,43 @@
+package nl.lukasmiedema.telegrambotapi.transport;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+/**
+ * The default transport, using Jersey's HttpURLConnection based connector. Connection reuse is left to the JDK
+ * (see the <code>http.keepAlive</code> and <code>http.maxConnections</code> system properties).
+ * Use {@link PooledTransport} for control over the connection pool.
+ * @author Lukas Miedema
+ */
+public class DefaultTransport implements TelegramTransport {
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * Constructs a new DefaultTransport without timeouts.
+     */
+    public DefaultTransport() {
+        this(0, 0);
+    }
+
+    /**
+     * Constructs a new DefaultTransport.
+     * @param connectTimeout the connect timeout in milliseconds, 0 for none
+     * @param readTimeout the read timeout in milliseconds, 0 for none. Long polling requests override this.
+     */
+    public DefaultTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public Client createClient() {
+        return ClientBuilder.newBuilder().
+                property(ClientProperties.CONNECT_TIMEOUT, connectTimeout).
+                property(ClientProperties.READ_TIMEOUT, readTimeout).
+                build();
+    }
+}
@@ -0,0 +1,146 @@
+package nl.lukasmiedema.telegrambotapi.transport;
+
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport backed by the Apache HttpClient connector with a pool of keep-alive connections.
+ * All clients created by one PooledTransport share the same pool, so multiple bots can share a transport.
+ * Instances should be constructed via {@link PooledTransport.Builder}.
+ * @author Lukas Miedema
+ */
+public class PooledTransport implements TelegramTransport {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor evictor;
+    private final int maxConnections;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private PooledTransport(Builder builder) {
+        this.maxConnections = builder.maxConnections;
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+
+        // Create the pool
+        this.connectionManager = new PoolingHttpClientConnectionManager(builder.timeToLive, TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(builder.maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(builder.maxConnections);
+        this.connectionManager.setValidateAfterInactivity(builder.validateAfterInactivity);
+
+        // Evict idle connections before the server closes them on us
+        this.evictor = new IdleConnectionEvictor(connectionManager,
+                builder.idleTimeout, TimeUnit.MILLISECONDS, builder.idleTimeout, TimeUnit.MILLISECONDS);
+        this.evictor.start();
+    }
+
+    @Override
+    public Client createClient() {
+        ClientConfig config = new ClientConfig().
+                connectorProvider(new ApacheConnectorProvider()).
+                property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager).
+                property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true).
+                property(ClientProperties.CONNECT_TIMEOUT, connectTimeout).
+                property(ClientProperties.READ_TIMEOUT, readTimeout).
+                property(ClientProperties.ASYNC_THREADPOOL_SIZE, maxConnections);
+        return ClientBuilder.newClient(config);
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdown();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Builder for a PooledTransport
+     */
+    public static class Builder {
+
+        private int maxConnections = 64;
+        private int connectTimeout = 10_000;
+        private int readTimeout = 0;
+        private long idleTimeout = 30_000;
+        private long timeToLive = -1;
+        private int validateAfterInactivity = 2_000;
+
+        /**
+         * Sets the maximum number of open connections, and with that the number of requests that can be in flight.
+         * Note that every long polling bot keeps one connection busy. Defaults to 64.
+         * @param maxConnections
+         * @return
+         */
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout in milliseconds, 0 for none. Defaults to 10 seconds.
+         * @param connectTimeout
+         * @return
+         */
+        public Builder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the read timeout in milliseconds, 0 for none. Long polling requests override this. Defaults to none.
+         * @param readTimeout
+         * @return
+         */
+        public Builder readTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may stay idle in the pool before it is closed, in milliseconds.
+         * Defaults to 30 seconds.
+         * @param idleTimeout
+         * @return
+         */
+        public Builder idleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the maximum lifetime of a connection in milliseconds, -1 for unlimited (the default).
+         * @param timeToLive
+         * @return
+         */
+        public Builder timeToLive(long timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * Sets after how many milliseconds of inactivity a pooled connection is checked before it is reused.
+         * Defaults to 2 seconds.
+         * @param validateAfterInactivity
+         * @return
+         */
+        public Builder validateAfterInactivity(int validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+            return this;
+        }
+
+        /**
+         * Builds the PooledTransport
+         * @return
+         */
+        public PooledTransport build() {
+            return new PooledTransport(this);
+        }
+    }
+}
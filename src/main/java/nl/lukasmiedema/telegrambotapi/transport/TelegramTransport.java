@@ -0,0 +1,26 @@
+package nl.lukasmiedema.telegrambotapi.transport;
+
+import javax.ws.rs.client.Client;
+
+/**
+ * A TelegramTransport supplies the HTTP client a {@link nl.lukasmiedema.telegrambotapi.TelegramApi} uses to talk
+ * to the Telegram servers. It decides which connector is used and how connections are managed.
+ * A single transport may be shared between multiple TelegramApi instances.
+ * @author Lukas Miedema
+ */
+public interface TelegramTransport {
+
+    /**
+     * Returns the JAX-RS client to use. JSON and multipart support are registered by the caller.
+     * A transport may return the same client every time, in which case it is shared by all TelegramApi instances.
+     * @return
+     */
+    Client createClient();
+
+    /**
+     * Releases the resources held by this transport, such as pooled connections.
+     * Clients created by this transport should not be used afterwards.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,211 @@
+package nl.lukasmiedema.telegrambotapi.upload;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers the Telegram file id of uploaded content, keyed by a hash of that content. Once a file has been
+ * uploaded, sending the same bytes again only needs its file id.
+ * <p>
+ * The cache holds at most a fixed number of entries and evicts the least recently used one when full.
+ * It is persisted in an append-only file which is compacted when it grows to twice the number of entries,
+ * so a restarted bot keeps its file ids.
+ * @author Lukas Miedema
+ */
+public class FileIdCache implements AutoCloseable {
+
+    private static final String REMOVED = "-";
+
+    private final Path file;
+    private final int maxEntries;
+    private final Map<String, String> entries;
+
+    // Guards the entries and the log; the log is written while holding it, so it's a lock rather than a monitor
+    private final ReentrantLock lock = new ReentrantLock();
+    private BufferedWriter log;
+    private int logLines;
+    private String evicted;
+
+    /**
+     * Constructs a new FileIdCache, loading the entries stored in the file (if it exists).
+     * @param file the file to persist the cache in
+     * @param maxEntries the maximum number of file ids to remember
+     * @throws IOException if the file could not be read or created
+     */
+    public FileIdCache(Path file, int maxEntries) throws IOException {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() > FileIdCache.this.maxEntries) {
+                    evicted = eldest.getKey();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        // Replay the log
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                int split = line.indexOf(' ');
+                if (split == -1) {
+                    continue;
+                }
+                String key = line.substring(0, split);
+                String fileId = line.substring(split + 1);
+                if (fileId.equals(REMOVED)) {
+                    entries.remove(key);
+                } else {
+                    entries.put(key, fileId);
+                }
+            }
+        }
+        evicted = null;
+        compact();
+    }
+
+    /**
+     * Returns the file id of the content with the provided key, or null if it's not known.
+     * @param key the content key, see {@link #key(String, Path)}
+     * @return
+     */
+    public String get(String key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remembers the file id of the content with the provided key.
+     * @param key the content key, see {@link #key(String, Path)}
+     * @param fileId the Telegram file id
+     */
+    public void put(String key, String fileId) {
+        lock.lock();
+        try {
+            if (!fileId.equals(entries.put(key, fileId))) {
+                append(key, fileId);
+            }
+
+            // Log evictions too, the log does not know which entries were used recently
+            if (evicted != null) {
+                append(evicted, REMOVED);
+                evicted = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the file id of the content with the provided key, for example because Telegram no longer accepts it.
+     * @param key the content key, see {@link #key(String, Path)}
+     */
+    public void remove(String key) {
+        lock.lock();
+        try {
+            if (entries.remove(key) != null) {
+                append(key, REMOVED);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            log.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates the key of a file: the kind of media it is sent as, followed by the SHA-256 hash of its contents.
+     * File ids can only be reused for the same kind of media, so the kind is part of the key.
+     * @param kind the kind of media, such as "photo" or "document"
+     * @param path the file
+     * @return
+     * @throws IOException if the file could not be read
+     */
+    public static String key(String kind, Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Hash the file without pulling it onto the heap as a whole
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        StringBuilder key = new StringBuilder(kind).append(':');
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Appends a line to the log, compacting it when it has grown too large.
+     */
+    private void append(String key, String value) {
+        try {
+            log.write(key);
+            log.write(' ');
+            log.write(value);
+            log.newLine();
+            log.flush();
+            if (++logLines > maxEntries * 2) {
+                log.close();
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rewrites the log to only contain the current entries, least recently used first.
+     */
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                writer.write(e.getKey());
+                writer.write(' ');
+                writer.write(e.getValue());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.logLines = entries.size();
+        this.log = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,199 @@
+package nl.lukasmiedema.telegrambotapi.upload;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The contents of a file to upload, streamed into the connection through a single bounded buffer. The file is
+ * never held on the heap as a whole, so memory use does not depend on the size of the file.
+ * Uploads are sent with chunked transfer encoding for the same reason.
+ * <p>
+ * Uploads backed by a path, a file channel or a (memory-mapped) buffer can be written more than once, so failed
+ * uploads can be retried. Uploads backed by an {@link InputStream} can only be written once.
+ * @author Lukas Miedema
+ */
+public class StreamingUpload implements StreamingOutput {
+
+    /**
+     * The default size of the transfer buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final String fileName;
+    private final long length;
+    private final Source source;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private ProgressListener listener = (sent, total) -> { };
+
+    private StreamingUpload(String fileName, long length, Source source) {
+        this.fileName = fileName;
+        this.length = length;
+        this.source = source;
+    }
+
+    /**
+     * Creates an upload of a file. The file is opened every time the upload is written.
+     * @param path the file
+     * @return
+     * @throws IOException if the size of the file could not be determined
+     */
+    public static StreamingUpload of(Path path) throws IOException {
+        return new StreamingUpload(path.getFileName().toString(), Files.size(path), (out, buffer, progress) -> {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                transfer(channel, 0, Long.MAX_VALUE, out, buffer, progress);
+            }
+        });
+    }
+
+    /**
+     * Creates an upload of a region of an open file channel. Reads are positional, so the channel's position is
+     * not changed and the channel may be shared. The channel is not closed by the upload.
+     * @param channel the channel
+     * @param position the offset of the region in the file
+     * @param count the length of the region
+     * @param fileName the file name to send
+     * @return
+     */
+    public static StreamingUpload of(FileChannel channel, long position, long count, String fileName) {
+        return new StreamingUpload(fileName, count, (out, buffer, progress) ->
+                transfer(channel, position, count, out, buffer, progress));
+    }
+
+    /**
+     * Creates an upload of the remaining bytes of a buffer, for example a memory-mapped region of a file.
+     * The position of the buffer is not changed.
+     * @param buffer the buffer
+     * @param fileName the file name to send
+     * @return
+     */
+    public static StreamingUpload of(ByteBuffer buffer, String fileName) {
+        return new StreamingUpload(fileName, buffer.remaining(), (out, transferBuffer, progress) -> {
+            ByteBuffer src = buffer.duplicate();
+            while (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), transferBuffer.length);
+                src.get(transferBuffer, 0, n);
+                out.write(transferBuffer, 0, n);
+                progress.sent(n);
+            }
+        });
+    }
+
+    /**
+     * Creates an upload of an input stream. The stream can only be uploaded once, and is closed when done.
+     * @param in the stream
+     * @param length the number of bytes in the stream, or -1 if unknown
+     * @param fileName the file name to send
+     * @return
+     */
+    public static StreamingUpload of(InputStream in, long length, String fileName) {
+        AtomicBoolean consumed = new AtomicBoolean();
+        return new StreamingUpload(fileName, length, (out, buffer, progress) -> {
+            if (consumed.getAndSet(true)) {
+                throw new IllegalStateException("An InputStream upload can only be sent once");
+            }
+            try (InputStream stream = in) {
+                for (int n; (n = stream.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                    progress.sent(n);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the size of the transfer buffer. Defaults to {@link #DEFAULT_BUFFER_SIZE}.
+     * @param bufferSize
+     * @return
+     */
+    public StreamingUpload bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the listener receiving upload progress.
+     * @param listener
+     * @return
+     */
+    public StreamingUpload onProgress(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Returns the file name sent along with the upload.
+     * @return
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the size of the upload in bytes, or -1 if unknown.
+     * @return
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        long[] sent = new long[1];
+        source.write(output, new byte[bufferSize], n -> {
+            sent[0] += n;
+            listener.onProgress(sent[0], length);
+        });
+    }
+
+    /**
+     * Copies a region of a channel through the buffer using positional reads.
+     */
+    private static void transfer(FileChannel channel, long position, long count, OutputStream out, byte[] buffer,
+                                 Progress progress) throws IOException {
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long end = count == Long.MAX_VALUE ? Long.MAX_VALUE : position + count;
+        for (long pos = position; pos < end; ) {
+            wrapped.clear();
+            wrapped.limit((int) Math.min(buffer.length, end - pos));
+            int n = channel.read(wrapped, pos);
+            if (n == -1) {
+                break;
+            }
+            out.write(buffer, 0, n);
+            pos += n;
+            progress.sent(n);
+        }
+    }
+
+    /**
+     * Receives the progress of an upload. Invoked on the thread writing the request, so it should return quickly.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Invoked after every written chunk. When an upload is retried, progress starts over at 0.
+         * @param sent the number of bytes sent so far
+         * @param total the total number of bytes, or -1 if unknown
+         */
+        void onProgress(long sent, long total);
+    }
+
+    @FunctionalInterface
+    private interface Progress {
+        void sent(int n);
+    }
+
+    @FunctionalInterface
+    private interface Source {
+        void write(OutputStream out, byte[] buffer, Progress progress) throws IOException;
+    }
+}
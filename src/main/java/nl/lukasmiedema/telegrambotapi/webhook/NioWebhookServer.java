@@ -0,0 +1,662 @@
+package nl.lukasmiedema.telegrambotapi.webhook;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramUpdate;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal HTTP/1.1 server receiving web hook calls, as a lightweight alternative to running Jersey.
+ * <p>
+ * A single thread serves all connections with a selector. Only POST requests to the configured (secret) path
+ * with a <code>Content-Length</code> of at most the maximum body size are accepted. Each connection reads into a
+ * small pooled buffer, which only grows to fit the body once its length is known, and the update is deserialized
+ * straight from that buffer. Connections are kept alive, as Telegram reuses them for subsequent updates.
+ * <p>
+ * The number of open connections is capped; beyond it, new connections wait in the backlog. A connection is closed
+ * when it stays idle, or takes to send a request or receive a response, for longer than the idle timeout.
+ * <p>
+ * When constructed with an {@link SSLContext}, the server terminates TLS itself. TLS sessions are cached by the
+ * context (see {@link WebhookTls}), so reconnecting clients resume their session instead of doing a full handshake.
+ * @author Lukas Miedema
+ */
+public class NioWebhookServer implements AutoCloseable {
+
+    /**
+     * The default maximum size of a request body
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * The default maximum number of open connections
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    /**
+     * The default idle timeout in milliseconds
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    // The number of request buffers kept for reuse
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    // The maximum size of the request line and headers
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OK = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ObjectReader UPDATE_READER = new ObjectMapper().
+            configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false).reader(TelegramUpdate.class);
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final String path;
+    private final int maxBodySize;
+    private final UpdateSink sink;
+    private final SSLContext sslContext;
+    private final int headroom;
+    private final int bufferSize;
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final SelectionKey serverKey;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Only used by the server thread
+    private int connections;
+    private long lastSweep = System.nanoTime();
+
+    /**
+     * Constructs and starts a new NioWebhookServer
+     * @param address the address to bind to
+     * @param path the path to accept updates on, such as <code>/hook-4b8f2c</code>. Other paths are answered
+     *             with 404, so a random path keeps others from sending fake updates.
+     * @param maxBodySize the maximum size of a request body in bytes. Larger requests are refused.
+     * @param sink receives the updates
+     * @throws IOException if the server could not be started
+     */
+    public NioWebhookServer(InetSocketAddress address, String path, int maxBodySize, UpdateSink sink)
+            throws IOException {
+        this(address, path, maxBodySize, sink, null);
+    }
+
+    /**
+     * Constructs and starts a new NioWebhookServer
+     * @param address the address to bind to
+     * @param path the path to accept updates on, such as <code>/hook-4b8f2c</code>. Other paths are answered
+     *             with 404, so a random path keeps others from sending fake updates.
+     * @param maxBodySize the maximum size of a request body in bytes. Larger requests are refused.
+     * @param sink receives the updates
+     * @param sslContext the TLS settings to accept HTTPS connections with, or null for plain HTTP
+     * @throws IOException if the server could not be started
+     */
+    public NioWebhookServer(InetSocketAddress address, String path, int maxBodySize, UpdateSink sink,
+                            SSLContext sslContext) throws IOException {
+        this(address, path, maxBodySize, DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT, sink, sslContext);
+    }
+
+    /**
+     * Constructs and starts a new NioWebhookServer
+     * @param address the address to bind to
+     * @param path the path to accept updates on, such as <code>/hook-4b8f2c</code>. Other paths are answered
+     *             with 404, so a random path keeps others from sending fake updates.
+     * @param maxBodySize the maximum size of a request body in bytes. Larger requests are refused.
+     * @param maxConnections the maximum number of open connections
+     * @param idleTimeout how long in milliseconds a connection may be idle, or take to send a request or receive
+     *                    a response, before it is closed
+     * @param sink receives the updates
+     * @param sslContext the TLS settings to accept HTTPS connections with, or null for plain HTTP
+     * @throws IOException if the server could not be started
+     */
+    public NioWebhookServer(InetSocketAddress address, String path, int maxBodySize, int maxConnections,
+                            long idleTimeout, UpdateSink sink, SSLContext sslContext) throws IOException {
+        if (maxConnections <= 0 || idleTimeout <= 0) {
+            throw new IllegalArgumentException("maxConnections and idleTimeout should be positive");
+        }
+        this.path = path.isEmpty() ? "/" : path;
+        this.maxBodySize = maxBodySize;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.sink = sink;
+        this.sslContext = sslContext;
+
+        // Leave room for a decrypted TLS record beyond the request
+        this.headroom = sslContext != null ?
+                sslContext.createSSLEngine().getSession().getApplicationBufferSize() : 0;
+        this.bufferSize = MAX_HEADER_SIZE + headroom;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(address);
+        this.server.configureBlocking(false);
+        this.serverKey = this.server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "telegram-bot-api webhook server");
+        this.thread.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * @return
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stops the server and closes all connections.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serves connections until closed
+     */
+    private void run() {
+        try {
+            long sweepInterval = Math.min(idleTimeout, TimeUnit.SECONDS.toNanos(1));
+            while (running) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(sweepInterval));
+                for (Runnable task; (task = tasks.poll()) != null; ) {
+                    task.run();
+                }
+                long now = System.nanoTime();
+                if (now - lastSweep >= sweepInterval) {
+                    lastSweep = now;
+                    sweep(now);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // Nothing left to clean up
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        SSLEngine engine = null;
+        if (sslContext != null) {
+            engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+        }
+        Connection connection = new Connection(channel, takeBuffer(), engine);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+
+        // Leave further connections in the backlog until one closes
+        if (++connections >= maxConnections) {
+            serverKey.interestOps(0);
+        }
+    }
+
+    /**
+     * Closes the connections which passed their deadline
+     */
+    private void sweep(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+
+                // Waiting for the update to be accepted is not the client's doing
+                boolean waiting = connection.responding && connection.out == null;
+                if (!waiting && now - connection.deadline > 0) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(bufferSize);
+    }
+
+    private void returnBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && bufferPool.size() < MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            bufferPool.push(buffer);
+        }
+    }
+
+    /**
+     * Runs a task on the server thread
+     */
+    private void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+        } else {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * A connection and the request it is currently receiving
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer in;
+        private SelectionKey key;
+        private ByteBuffer out;
+        private long deadline;
+
+        // Encrypted data, when using TLS
+        private final SSLEngine engine;
+        private final ByteBuffer netIn;
+        private final ByteBuffer netOut;
+
+        // The request being received
+        private int bodyStart = -1;
+        private int contentLength;
+        private boolean expectContinue;
+        private boolean closeAfter;
+        private boolean responding;
+
+        private Connection(SocketChannel channel, ByteBuffer in, SSLEngine engine) {
+            this.channel = channel;
+            this.in = in;
+            this.engine = engine;
+            this.deadline = System.nanoTime() + idleTimeout;
+            if (engine != null) {
+                this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                this.netOut.limit(0);
+            } else {
+                this.netIn = null;
+                this.netOut = null;
+            }
+        }
+
+        private void read() throws IOException {
+
+            // The request has to arrive in time once it starts, however slowly it trickles in
+            boolean idle = in.position() == 0 && (engine == null || netIn.position() == 0);
+            int read = channel.read(engine != null ? netIn : in);
+            if (read == -1) {
+                close();
+                return;
+            }
+            if (idle && read > 0) {
+                deadline = System.nanoTime() + idleTimeout;
+            }
+            if (engine != null && !pump()) {
+                return;
+            }
+            process();
+        }
+
+        private void write() throws IOException {
+            if (engine == null) {
+                channel.write(out);
+            } else if (!pump()) {
+                return;
+            }
+            if ((out != null && out.hasRemaining()) || (netOut != null && netOut.hasRemaining())) {
+                return;
+            }
+
+            // Only handshake data was written
+            if (out == null) {
+                key.interestOps(responding ? 0 : SelectionKey.OP_READ);
+                return;
+            }
+
+            out = null;
+            deadline = System.nanoTime() + idleTimeout;
+            if (!responding) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (closeAfter) {
+                close();
+            } else {
+                responding = false;
+                key.interestOps(SelectionKey.OP_READ);
+                if (engine != null && !pump()) {
+                    return;
+                }
+                process();
+            }
+        }
+
+        /**
+         * Moves data through the TLS engine: runs the handshake, encrypts the response into the network buffer and
+         * decrypts received data into the request buffer, for as long as progress is made.
+         * @return false if the connection was closed
+         */
+        private boolean pump() throws IOException {
+            while (true) {
+
+                // Send out encrypted data first
+                if (netOut.hasRemaining()) {
+                    channel.write(netOut);
+                    if (netOut.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return true;
+                    }
+                }
+
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    for (Runnable task; (task = engine.getDelegatedTask()) != null; ) {
+                        task.run();
+                    }
+                    continue;
+                }
+
+                // Encrypt handshake messages, or the response once the handshake is done
+                boolean handshaking = status == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+                if (handshaking || (status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
+                        out != null && out.hasRemaining())) {
+                    netOut.clear();
+                    SSLEngineResult result = engine.wrap(handshaking ? EMPTY : out, netOut);
+                    netOut.flip();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED && !netOut.hasRemaining()) {
+                        close();
+                        return false;
+                    }
+                    continue;
+                }
+
+                // Decrypt whatever has been received
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, in);
+                netIn.compact();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    close();
+                    return false;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK ||
+                        (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Handles the received bytes once they form a complete request
+         */
+        private void process() {
+            if (responding) {
+                return;
+            }
+
+            // Wait for the complete headers
+            if (bodyStart < 0) {
+                int end = indexOfHeaderEnd();
+                if (end < 0) {
+                    if (in.position() >= MAX_HEADER_SIZE) {
+                        fail("431 Request Header Fields Too Large");
+                    }
+                    return;
+                }
+                bodyStart = end + 4;
+                if (!parseHeaders(new String(in.array(), 0, end, StandardCharsets.ISO_8859_1))) {
+                    return;
+                }
+                resize(bodyStart + contentLength + headroom);
+            }
+
+            // Wait for the complete body
+            int received = in.position() - bodyStart;
+            if (received < contentLength) {
+                if (expectContinue && received == 0) {
+                    expectContinue = false;
+                    send(ByteBuffer.wrap(CONTINUE));
+                }
+                return;
+            }
+
+            // Deserialize straight from the buffer
+            TelegramUpdate update;
+            try {
+                update = UPDATE_READER.readValue(in.array(), bodyStart, contentLength);
+            } catch (IOException | RuntimeException e) {
+                fail("400 Bad Request");
+                return;
+            }
+
+            // Stop reading until the update has been accepted
+            responding = true;
+            key.interestOps(0);
+            int consumed = bodyStart + contentLength;
+            CompletionStage<?> accepted;
+            try {
+                accepted = sink.accept(update);
+            } catch (RuntimeException e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                accepted = failed;
+            }
+            accepted.whenComplete((result, error) -> execute(() -> {
+                if (!channel.isOpen()) {
+                    return;
+                }
+
+                // Keep any bytes of the next request, in a small buffer again if they fit
+                in.flip();
+                in.position(consumed);
+                in.compact();
+                if (in.capacity() > bufferSize && in.position() <= MAX_HEADER_SIZE) {
+                    resize(bufferSize);
+                }
+                bodyStart = -1;
+                contentLength = 0;
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                            error.getCause() : error;
+                    fail(cause instanceof RejectedExecutionException ? "503 Service Unavailable" :
+                            "500 Internal Server Error");
+                } else if (result instanceof WebhookReply) {
+                    send(reply(((WebhookReply) result).getBody()));
+                } else {
+                    send(ByteBuffer.wrap(OK));
+                }
+            }));
+        }
+
+        /**
+         * Validates the request line and headers
+         * @return false if the request was refused
+         */
+        private boolean parseHeaders(String head) {
+            String[] lines = head.split("\r\n");
+            String[] request = lines[0].split(" ");
+            if (request.length != 3) {
+                fail("400 Bad Request");
+                return false;
+            }
+            closeAfter = !request[2].equals("HTTP/1.1");
+            String target = request[1];
+            int query = target.indexOf('?');
+            if (query >= 0) {
+                target = target.substring(0, query);
+            }
+            if (!target.equals(path)) {
+                fail("404 Not Found");
+                return false;
+            }
+            if (!request[0].equals("POST")) {
+                fail("405 Method Not Allowed");
+                return false;
+            }
+
+            int length = -1;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                switch (name) {
+                    case "content-length":
+                        try {
+                            length = Integer.parseInt(value);
+                        } catch (NumberFormatException e) {
+                            fail("400 Bad Request");
+                            return false;
+                        }
+                        break;
+                    case "transfer-encoding":
+                        fail("411 Length Required");
+                        return false;
+                    case "connection":
+                        closeAfter |= value.equalsIgnoreCase("close");
+                        break;
+                    case "expect":
+                        expectContinue = value.equalsIgnoreCase("100-continue");
+                        break;
+                }
+            }
+            if (length < 0) {
+                fail("411 Length Required");
+                return false;
+            }
+            if (length > maxBodySize) {
+                fail("413 Payload Too Large");
+                return false;
+            }
+            contentLength = length;
+            return true;
+        }
+
+        /**
+         * Moves the received bytes to a buffer of another size, unless it already has that size
+         */
+        private void resize(int size) {
+            size = Math.max(size, bufferSize);
+            if (in.capacity() == size) {
+                return;
+            }
+            ByteBuffer resized = size == bufferSize ? takeBuffer() : ByteBuffer.allocate(size);
+            in.flip();
+            resized.put(in);
+            returnBuffer(in);
+            in = resized;
+        }
+
+        private int indexOfHeaderEnd() {
+            byte[] data = in.array();
+            for (int i = 3, end = Math.min(in.position(), MAX_HEADER_SIZE); i < end; i++) {
+                if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                    return i - 3;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Answers with an error and closes the connection
+         */
+        private void fail(String status) {
+            responding = true;
+            closeAfter = true;
+            send(ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").
+                    getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        /**
+         * Creates a response carrying a method call for Telegram to execute
+         */
+        private ByteBuffer reply(byte[] body) {
+            byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length +
+                    "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer response = ByteBuffer.allocate(head.length + body.length);
+            response.put(head).put(body).flip();
+            return response;
+        }
+
+        private void send(ByteBuffer response) {
+            out = response;
+            deadline = System.nanoTime() + idleTimeout;
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            returnBuffer(in);
+            if (connections-- == maxConnections && running) {
+                serverKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+    }
+}
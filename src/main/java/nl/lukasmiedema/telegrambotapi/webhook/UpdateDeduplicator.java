@@ -0,0 +1,153 @@
+package nl.lukasmiedema.telegrambotapi.webhook;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recognizes web hook updates Telegram delivers more than once, which it does whenever an answer is slow or fails.
+ * The most recent update ids are remembered in a fixed size ring, indexed by the id itself, so checking an update
+ * takes constant time and memory and never locks: concurrent web hook calls only compete on a single slot.
+ * Updates older than the window are considered to be repeats.
+ * <p>
+ * Telegram numbers updates consecutively, so the deduplicator also keeps track of the ids it skipped. Those are
+ * updates that have not arrived (yet), either delivered out of order or lost. The largest distance by which an
+ * update arrived late shows how far delivery lags behind. Note that ids are also skipped for updates excluded
+ * by the allowed updates of the bot.
+ * @author Lukas Miedema
+ */
+public class UpdateDeduplicator {
+
+    /**
+     * The default number of update ids remembered
+     */
+    public static final int DEFAULT_WINDOW = 1024;
+
+    private final AtomicLongArray seen;
+    private final int mask;
+    private final AtomicLong first = new AtomicLong();
+    private final AtomicLong highest = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private final AtomicLong maxLateness = new AtomicLong();
+
+    /**
+     * Constructs a new UpdateDeduplicator remembering {@link #DEFAULT_WINDOW} update ids
+     */
+    public UpdateDeduplicator() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructs a new UpdateDeduplicator
+     * @param window the number of update ids remembered, rounded up to a power of two
+     */
+    public UpdateDeduplicator(int window) {
+        if (window <= 0 || window > 1 << 30) {
+            throw new IllegalArgumentException("window should be positive and at most 2^30");
+        }
+        int size = Integer.highestOneBit(window);
+        if (size < window) {
+            size <<= 1;
+        }
+        this.seen = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Records the arrival of an update.
+     * @param updateId the id of the update, which is positive
+     * @return true if the update is new, false if it has been seen before
+     */
+    public boolean firstSeen(long updateId) {
+        first.compareAndSet(0, updateId);
+
+        // Too old to tell, so it must have been handled already
+        long top = highest.get();
+        if (updateId <= top - seen.length()) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+
+        // Claim the slot, unless it holds this id or a newer one
+        int slot = (int) (updateId & mask);
+        for (long current = seen.get(slot); ; current = seen.get(slot)) {
+            if (current >= updateId) {
+                duplicates.incrementAndGet();
+                return false;
+            } else if (seen.compareAndSet(slot, current, updateId)) {
+                break;
+            }
+        }
+
+        // Either move the top of the sequence forward, skipping ids, or fill in a skipped id
+        for (top = highest.get(); top < updateId; top = highest.get()) {
+            if (highest.compareAndSet(top, updateId)) {
+                if (top > 0 && updateId > top + 1) {
+                    missing.addAndGet(updateId - top - 1);
+                }
+                return true;
+            }
+        }
+        if (updateId > first.get()) {
+            missing.decrementAndGet();
+        }
+        late.incrementAndGet();
+        long lateness = top - updateId;
+        maxLateness.accumulateAndGet(lateness, Math::max);
+        return true;
+    }
+
+    /**
+     * Forgets an update, so it is accepted again when Telegram redelivers it. For updates which were not handled
+     * after all, for example because they could not be queued.
+     * @param updateId the id of the update
+     */
+    public void forget(long updateId) {
+        if (seen.compareAndSet((int) (updateId & mask), updateId, 0) && updateId < highest.get() &&
+                updateId > first.get()) {
+            missing.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the highest update id seen, or 0 if none have been seen.
+     * @return
+     */
+    public long getHighestUpdateId() {
+        return highest.get();
+    }
+
+    /**
+     * Returns the number of updates recognized as repeats.
+     * @return
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * Returns the number of update ids which were skipped and have not arrived since: updates that are late,
+     * lost, or were never sent.
+     * @return
+     */
+    public long getMissingCount() {
+        return missing.get();
+    }
+
+    /**
+     * Returns the number of updates which arrived after an update with a higher id.
+     * @return
+     */
+    public long getLateCount() {
+        return late.get();
+    }
+
+    /**
+     * Returns the largest number of update ids by which an update arrived late.
+     * @return
+     */
+    public long getMaxLateness() {
+        return maxLateness.get();
+    }
+}
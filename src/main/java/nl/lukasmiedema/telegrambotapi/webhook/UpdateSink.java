@@ -0,0 +1,24 @@
+package nl.lukasmiedema.telegrambotapi.webhook;
+
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramUpdate;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Receives the updates arriving at a {@link NioWebhookServer}.
+ * @author Lukas Miedema
+ */
+@FunctionalInterface
+public interface UpdateSink {
+
+    /**
+     * Accepts an update. Invoked on the server thread, so it should hand the update off instead of handling it.
+     * @param update the update
+     * @return a stage completing once Telegram may be told the update was received. When it completes with a
+     *         {@link WebhookReply}, the reply is sent along with the answer. When it completes exceptionally,
+     *         Telegram is answered with an error and will deliver the update again: 503 for a
+     *         {@link java.util.concurrent.RejectedExecutionException}, when there is no room for the update,
+     *         and 500 otherwise.
+     */
+    CompletionStage<?> accept(TelegramUpdate update);
+}
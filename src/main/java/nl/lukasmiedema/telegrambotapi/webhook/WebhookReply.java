@@ -0,0 +1,45 @@
+package nl.lukasmiedema.telegrambotapi.webhook;
+
+import nl.lukasmiedema.telegrambotapi.telegram.request.JsonRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A method call sent back in the response to a web hook call, instead of as a request of its own. Telegram
+ * executes it as if it were called through the API, but does not report whether it succeeded.
+ * @author Lukas Miedema
+ */
+public class WebhookReply {
+
+    private final byte[] body;
+
+    private WebhookReply(byte[] body) {
+        this.body = body;
+    }
+
+    /**
+     * Creates a new WebhookReply. The request is serialized right away.
+     * @param method the method to call, such as <code>sendMessage</code>
+     * @param request the parameters of the method
+     * @return
+     */
+    public static WebhookReply of(String method, JsonRequest request) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        try {
+            request.asMethodCall(method).write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new WebhookReply(body.toByteArray());
+    }
+
+    /**
+     * Returns the JSON body of the response.
+     * @return
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
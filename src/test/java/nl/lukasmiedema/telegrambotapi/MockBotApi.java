@@ -0,0 +1,128 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A local stand-in for the Bot API which records the requests made to it
+ * @author Lukas Miedema
+ */
+class MockBotApi implements AutoCloseable {
+
+    /**
+     * A request made to the mock
+     */
+    static class Request {
+        final String path;
+        final String contentType;
+        final String body;
+
+        private Request(String path, String contentType, String body) {
+            this.path = path;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    /**
+     * An answer of the mock
+     */
+    static class Answer {
+        final int status;
+        final String body;
+
+        Answer(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private final HttpServer server;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts the mock on a free port
+     * @param answer answers every request
+     */
+    MockBotApi(Function<Request, Answer> answer) {
+        try {
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.createContext("/", exchange -> {
+            Request request = new Request(exchange.getRequestURI().getPath(),
+                    exchange.getRequestHeaders().getFirst("Content-Type"), read(exchange.getRequestBody()));
+            requests.add(request);
+            Answer a = answer.apply(request);
+            byte[] body = a.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(a.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Returns the settings of an api talking to this mock
+     * @return
+     */
+    TelegramApiConfig config() {
+        return new TelegramApiConfig().apiUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/bot");
+    }
+
+    /**
+     * Returns the requests made so far
+     * @return
+     */
+    List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns the answer to a successful sendMessage
+     * @param chatId the chat the message went to
+     * @return
+     */
+    static Answer sentText(long chatId) {
+        return new Answer(200, "{\"ok\":true,\"result\":" + textMessage(chatId, "sent") + "}");
+    }
+
+    /**
+     * Returns a text message as it appears in updates and results
+     * @param chatId the chat of the message
+     * @param text the text
+     * @return
+     */
+    static String textMessage(long chatId, String text) {
+        return "{\"message_id\":1,\"from\":{\"id\":1,\"first_name\":\"user\"},\"date\":0," +
+                "\"chat\":{\"id\":" + chatId + ",\"first_name\":\"user\",\"type\":\"private\"}," +
+                "\"text\":\"" + text + "\"}";
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
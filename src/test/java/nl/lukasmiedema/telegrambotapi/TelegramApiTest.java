@@ -0,0 +1,81 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.upload.FileIdCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Lukas Miedema
+ */
+public class TelegramApiTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File document;
+    private String key;
+    private FileIdCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        document = folder.newFile("document.txt");
+        Files.write(document.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        key = FileIdCache.key("document", document.toPath());
+        cache = new FileIdCache(folder.getRoot().toPath().resolve("file-ids"), 10);
+        cache.put(key, "cached-id");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void otherErrorKeepsTheFileId() {
+        try (MockBotApi mock = new MockBotApi(request -> badRequest("Bad Request: chat not found"))) {
+            TelegramApi api = new TelegramApi("t", mock.config().fileIdCache(cache)) {};
+            try {
+                api.sendDocumentAsync(5, document, null).join();
+                fail("The send should fail");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof TelegramApiException);
+            }
+            assertEquals(1, mock.getRequests().size());
+            assertTrue(mock.getRequests().get(0).body.contains("cached-id"));
+            assertEquals("cached-id", cache.get(key));
+        }
+    }
+
+    @Test
+    public void rejectedFileIdIsUploadedAgain() {
+        try (MockBotApi mock = new MockBotApi(request -> request.contentType.startsWith("multipart/") ?
+                new MockBotApi.Answer(200, "{\"ok\":true,\"result\":" + documentMessage("new-id") + "}") :
+                badRequest("Bad Request: wrong file identifier/HTTP URL specified"))) {
+            TelegramApi api = new TelegramApi("t", mock.config().fileIdCache(cache)) {};
+            assertTrue(api.sendDocumentAsync(5, document, null).join().isOk());
+            assertEquals(2, mock.getRequests().size());
+            assertEquals("new-id", cache.get(key));
+        }
+    }
+
+    private static MockBotApi.Answer badRequest(String description) {
+        return new MockBotApi.Answer(400, "{\"ok\":false,\"error_code\":400,\"description\":\"" + description + "\"}");
+    }
+
+    private static String documentMessage(String fileId) {
+        return "{\"message_id\":1,\"from\":{\"id\":1,\"first_name\":\"user\"},\"date\":0," +
+                "\"chat\":{\"id\":5,\"first_name\":\"user\",\"type\":\"private\"}," +
+                "\"document\":{\"file_id\":\"" + fileId + "\",\"file_name\":\"document.txt\"}}";
+    }
+}
@@ -0,0 +1,41 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.ratelimit.SendScheduler;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Lukas Miedema
+ */
+public class TelegramBroadcastTest {
+
+    @Test
+    public void sendsGoThroughTheScheduler() {
+        List<Long> scheduled = new CopyOnWriteArrayList<>();
+        SendScheduler scheduler = new SendScheduler() {
+            @Override
+            public <T> CompletableFuture<T> submit(long chatId, Supplier<? extends CompletableFuture<T>> send) {
+                scheduled.add(chatId);
+                return super.submit(chatId, send);
+            }
+        };
+        try (MockBotApi mock = new MockBotApi(request -> MockBotApi.sentText(5))) {
+            TelegramApi api = new TelegramApi("t", mock.config().sendScheduler(scheduler)) {};
+            TelegramBroadcast broadcast = new TelegramBroadcast.Builder(api, "hello").ratePerSecond(1000).build();
+            broadcast.run(LongStream.rangeClosed(1, 20));
+
+            assertEquals(20, broadcast.getSent());
+            assertEquals(20, mock.getRequests().size());
+            assertEquals(LongStream.rangeClosed(1, 20).boxed().collect(Collectors.toList()),
+                    scheduled.stream().sorted().collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package nl.lukasmiedema.telegrambotapi;
+
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramUpdate;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Lukas Miedema
+ */
+public class TelegramWebhookApiTest {
+
+    private final MockBotApi mock = new MockBotApi(request -> MockBotApi.sentText(5));
+    private final List<TelegramWebhookApi> apis = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        apis.forEach(TelegramWebhookApi::stop);
+        mock.close();
+    }
+
+    @Test
+    public void replyGoesIntoTheResponse() throws IOException {
+        TelegramWebhookApi[] self = new TelegramWebhookApi[1];
+        URI hook = start("a", update -> self[0].sendTextInResponse(5, "reply").join(), self);
+
+        String response = post(hook, 1);
+        assertTrue(response, response.contains("\"method\":\"sendMessage\""));
+        assertTrue(mock.getRequests().isEmpty());
+    }
+
+    @Test
+    public void replyOfAnotherBotIsSentAsARequest() throws IOException {
+        TelegramWebhookApi[] b = new TelegramWebhookApi[1];
+        start("b", update -> { }, b);
+        URI hookA = start("a", update -> b[0].sendTextInResponse(5, "from b").join(), new TelegramWebhookApi[1]);
+
+        assertEquals("", post(hookA, 1));
+        assertEquals(1, mock.getRequests().size());
+        assertEquals("/botb/sendMessage", mock.getRequests().get(0).path);
+    }
+
+    /**
+     * Starts a web hook API on a free port
+     * @return the url of its web hook
+     */
+    private URI start(String token, Consumer<TelegramUpdate> callback, TelegramWebhookApi[] holder)
+            throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        URI hook = URI.create("http://127.0.0.1:" + port + "/");
+        holder[0] = new TelegramWebhookApi(token, mock.config(), hook, callback);
+        apis.add(holder[0]);
+        return hook;
+    }
+
+    /**
+     * Delivers an update to a web hook
+     * @return the body of the response
+     */
+    private static String post(URI hook, long updateId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(hook.toString()).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(("{\"update_id\":" + updateId + ",\"message\":" + MockBotApi.textMessage(5, "hi") + "}")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue("status " + connection.getResponseCode(), connection.getResponseCode() / 100 == 2);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                body.write(buffer, 0, n);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
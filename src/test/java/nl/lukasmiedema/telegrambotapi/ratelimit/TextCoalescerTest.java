@@ -0,0 +1,62 @@
+package nl.lukasmiedema.telegrambotapi.ratelimit;
+
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramParseMode;
+import nl.lukasmiedema.telegrambotapi.telegram.message.TelegramTextMessage;
+import nl.lukasmiedema.telegrambotapi.telegram.response.TelegramResponse;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Lukas Miedema
+ */
+public class TextCoalescerTest {
+
+    private final TextCoalescer coalescer = new TextCoalescer(100, TimeUnit.MILLISECONDS);
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    // Sends right away, like a sender that fails or is shut down
+    private final Function<String, CompletableFuture<TelegramResponse<TelegramTextMessage>>> send = text -> {
+        sent.add(text);
+        return CompletableFuture.completedFuture(null);
+    };
+
+    @After
+    public void tearDown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void waitersMaySubmitToTheSameChat() throws Exception {
+        CompletableFuture<?> followUp = coalescer.submit(1, "a", TelegramParseMode.NORMAL, false, send)
+                .thenCompose(r -> coalescer.submit(1, "c", TelegramParseMode.MARKDOWN, false, send));
+
+        // A text with another mode sends the first batch straight away
+        coalescer.submit(1, "b", TelegramParseMode.MARKDOWN, false, send);
+
+        followUp.get(1, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("a", "b\nc"), sent);
+    }
+
+    @Test
+    public void failingSenderFailsItsWaiters() throws Exception {
+        CompletableFuture<?> waiter = coalescer.submit(1, "a", TelegramParseMode.NORMAL, false, text -> {
+            throw new IllegalStateException("shut down");
+        });
+        try {
+            waiter.get(1, TimeUnit.SECONDS);
+            fail("The waiter should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}